@@ -0,0 +1,69 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import org.openjdk.jmh.annotations.*;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quotes for a single stack, a full stack and a full inventory of items,
+ * priced through global, shop and player trackers. Current prices are measured
+ * as served from the quote cache and as computed after the trackers changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CalculatorBenchmark {
+
+    @Param({"1", "64", "2304"})
+    int amount;
+
+    PriceCalculator calculator;
+    ItemStackSnapshot item;
+    BigDecimal staticPrice = BigDecimal.TEN;
+    UUID shop = UUID.randomUUID();
+    UUID player = UUID.randomUUID();
+    PriceCalculator.Result result;
+    ItemTracker tracker;
+
+    @Setup
+    public void setup() {
+        Headless.install();
+        calculator = Headless.calculator(300);
+        item = Headless.item(7);
+        result = calculator.getPurchaseInformation(item, amount, staticPrice, Headless.CURRENCY, shop, player);
+        tracker = calculator.getGlobalTracker(item).get();
+    }
+
+    /** the same quote over and over, as signs ask for it. served from the quote cache */
+    @Benchmark
+    public BigDecimal getCurrentPurchasePriceCached() {
+        return calculator.getCurrentPurchasePrice(item, amount, staticPrice, shop, player);
+    }
+
+    /** bumps the global trackers version like a trade would, without moving the price, so every quote is computed */
+    @Benchmark
+    public BigDecimal getCurrentPurchasePriceUncached() {
+        tracker.merge(tracker);
+        return calculator.getCurrentPurchasePrice(item, amount, staticPrice, shop, player);
+    }
+
+    @Benchmark
+    public PriceCalculator.Result getPurchaseInformation() {
+        return calculator.getPurchaseInformation(item, amount, staticPrice, Headless.CURRENCY, shop, player);
+    }
+
+    @Benchmark
+    public PriceCalculator.Result getPurchaseInformationLazy() {
+        return calculator.getPurchaseInformation(item, amount, staticPrice, Headless.CURRENCY, shop, player, true);
+    }
+
+    @Benchmark
+    public int resultUpdate() {
+        result.update();
+        return result.getAffordableAmount();
+    }
+
+}
@@ -0,0 +1,199 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.ConfigKeys;
+import de.dosmike.sponge.toomuchstock.TooMuchStock;
+import de.dosmike.sponge.toomuchstock.utils.ApplicabilityFilters;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.slf4j.Logger;
+import org.spongepowered.api.Game;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.item.ItemType;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.EconomyService;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Minimal stand-ins for the parts of the Sponge API the pricing code touches,
+ * so the benchmarks can run without a server. While pricing, the calculator talks to
+ * the {@link Environment}. The stubs are needed for parsing the configuration, which
+ * reads the plugin's economy and item definitions, and for the Sponge types themselves.<br>
+ * Interfaces are implemented with proxies, that answer with empty values unless
+ * a method is answered explicitly. Proxies are only equal to themselves, just like
+ * catalog types are.
+ */
+final class Headless {
+
+    static final Currency CURRENCY = stub(Currency.class, new Answers()
+            .on("getId", args -> "bench:coin")
+    );
+    private static final Map<Integer, ItemType> itemTypes = new HashMap<>();
+    private static boolean installed = false;
+
+    private Headless() {}
+
+    /** inject the game, plugin instance and economy. can be called multiple times */
+    static synchronized void install() {
+        if (installed) return;
+        try {
+            Game game = stub(Game.class, new Answers()
+                    .on("isServerAvailable", args -> true)
+            );
+            for (Field field : Sponge.class.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()) || !field.getType().isInterface())
+                    continue;
+                field.setAccessible(true);
+                field.set(null, field.getType() == Game.class ? game : stub(field.getType(), new Answers()));
+            }
+
+            // parsing the configuration still looks up currencies and item definitions
+            EconomyService economy = stub(EconomyService.class, new Answers()
+                    .on("getDefaultCurrency", args -> CURRENCY)
+                    .on("getCurrencies", args -> Collections.singleton(CURRENCY))
+            );
+            TooMuchStock plugin = TooMuchStock.class.getDeclaredConstructor().newInstance();
+            set(TooMuchStock.class, null, "instance", plugin);
+            set(TooMuchStock.class, plugin, "economyService", economy);
+            set(TooMuchStock.class, plugin, "logger", stub(Logger.class, new Answers()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not set up the headless environment", e);
+        }
+        installed = true;
+    }
+
+    /** @return a distinct item type for every index */
+    static synchronized ItemType itemType(int index) {
+        return itemTypes.computeIfAbsent(index, i -> stub(ItemType.class, new Answers()
+                .on("getId", args -> "bench:item_" + i)
+                .on("getName", args -> "item_" + i)
+        ));
+    }
+    static ItemStackSnapshot item(int index) {
+        ItemType type = itemType(index);
+        return stub(ItemStackSnapshot.class, new Answers()
+                .on("getType", args -> type)
+                .on("getQuantity", args -> 1)
+        );
+    }
+
+    /**
+     * Builds a configuration with per item overrides for the first n item types.
+     * Item definitions for those types are registered as well.
+     */
+    static ConfigurationNode configuration(int configuredItems) {
+        ConfigurationNode root = SimpleConfigurationNode.root();
+        trackerConfiguration(root.getNode(ConfigKeys.KEY_DEFAULT), 5.0E-5);
+        for (int i = 0; i < configuredItems; i++) {
+            String key = "bench:item_" + i;
+            TooMuchStock.getItemDefinitionTable().put(key, ApplicabilityFilters.generateItemTypeEquals(itemType(i)));
+            trackerConfiguration(root.getNode(key), 1.0E-4);
+        }
+        return root;
+    }
+    private static void trackerConfiguration(ConfigurationNode node, double rate) {
+        for (String scope : new String[]{ConfigKeys.KEY_GLOBAL, ConfigKeys.KEY_SHOPS, ConfigKeys.KEY_PLAYERS}) {
+            ConfigurationNode tracker = node.getNode(scope);
+            tracker.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT).setValue(64000);
+            tracker.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT).setValue(64000);
+            tracker.getNode(ConfigKeys.KEY_IT_DISPERSIONDEVALUATION).setValue(1.0);
+            tracker.getNode(ConfigKeys.KEY_IT_HALFLIFE).setValue(30);
+            tracker.getNode(ConfigKeys.KEY_IT_PRICEDECAY).setValue(rate);
+            tracker.getNode(ConfigKeys.KEY_IT_PRICEINCREASE).setValue(rate);
+            tracker.getNode(ConfigKeys.KEY_IT_INCOMELIMIT, CURRENCY.getId()).setValue(1_000_000);
+            tracker.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT, CURRENCY.getId()).setValue(1_000_000);
+        }
+    }
+
+    static PriceManipulator manipulator(int configuredItems, String scope) {
+        try {
+            return PriceManipulator.fromConfiguration(configuration(configuredItems), scope);
+        } catch (ObjectMappingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    /**
+     * Everyone is online and rich, so nothing is paged out and the balance never limits a quote.
+     * Price changes are not reported anywhere.
+     */
+    static class Environment implements PricingEnvironment {
+        private static final BigDecimal BALANCE = BigDecimal.valueOf(1_000_000_000L);
+        @Override public boolean isOnline(UUID player) { return true; }
+        @Override public BigDecimal getBalance(UUID player, Currency currency) { return BALANCE; }
+        @Override public BigDecimal getCapacity(UUID player, Currency currency) { return null; }
+        @Override public void pricesChanged(Set<PriceUpdateEvent.Change> changes, ItemStackSnapshot traded) {}
+        @Override public CompletableFuture<Void> pageOut(UUID player, PriceManipulator manipulator) { return CompletableFuture.completedFuture(null); }
+        @Override public boolean pageIn(UUID player, PriceManipulator manipulator) { return false; }
+        @Override public void warn(String message) { System.err.println(message); }
+    }
+
+    static PriceCalculator calculator(int configuredItems) {
+        return calculator(configuredItems, new Environment());
+    }
+    static PriceCalculator calculator(int configuredItems, PricingEnvironment environment) {
+        ConfigurationNode configuration = configuration(configuredItems);
+        try {
+            return PriceCalculator.builder()
+                    .setEnvironment(environment)
+                    .setGlobalManipulatorTemplate(PriceManipulator.fromConfiguration(configuration, ConfigKeys.KEY_GLOBAL))
+                    .setShopsManipulatorTemplate(PriceManipulator.fromConfiguration(configuration, ConfigKeys.KEY_SHOPS))
+                    .setPlayerManipulatorTemplate(PriceManipulator.fromConfiguration(configuration, ConfigKeys.KEY_PLAYERS))
+                    .build();
+        } catch (ObjectMappingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void set(Class<?> owner, Object instance, String name, Object value) throws ReflectiveOperationException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(instance, value);
+    }
+
+    /** answers by method name, all overloads share an answer */
+    private static class Answers extends HashMap<String, Function<Object[], Object>> {
+        Answers on(String method, Function<Object[], Object> answer) {
+            put(method, answer);
+            return this;
+        }
+    }
+    private static <T> T stub(Class<T> type, Answers answers) {
+        Object proxy = Proxy.newProxyInstance(Headless.class.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) return answer.apply(args);
+            switch (method.getName()) {
+                case "equals": return self == args[0];
+                case "hashCode": return System.identityHashCode(self);
+                case "toString": return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(self));
+                default: return emptyValue(method);
+            }
+        });
+        return type.cast(proxy);
+    }
+    private static Object emptyValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == Optional.class) return Optional.empty();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0d;
+        if (type == float.class) return 0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return '\0';
+        if (type == List.class || type == Collection.class) return Collections.emptyList();
+        if (type == Set.class) return Collections.emptySet();
+        if (type == Map.class) return Collections.emptyMap();
+        return null;
+    }
+
+}
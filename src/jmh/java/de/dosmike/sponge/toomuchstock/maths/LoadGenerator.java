@@ -0,0 +1,315 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.service.PriceCalculationService;
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import de.dosmike.sponge.toomuchstock.service.TransactionPreview;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the {@link PriceCalculationService} with a synthetic or recorded trade workload, without a server.
+ * Time is simulated: the clock advances one minute (with a think tick) every {@code --perMinute} trades,
+ * so hours of trading run in seconds.<br>
+ * Run with {@code gradlew loadTest --args="--players 1000 --threads 4"}. Options:
+ * <ul>
+ *     <li>{@code --players}, {@code --shops}, {@code --items}: the amount of each to trade with. 0 shops trades without shops</li>
+ *     <li>{@code --configured}: how many of the items have a per item configuration</li>
+ *     <li>{@code --zipf}: the exponent for item popularity, 0 for uniform</li>
+ *     <li>{@code --buy}: the fraction of trades that are purchases</li>
+ *     <li>{@code --stack}: the amount per trade as min-max</li>
+ *     <li>{@code --threads}: the amount of threads trading concurrently</li>
+ *     <li>{@code --trades}, {@code --perMinute}: the total amount of trades and how many happen in a simulated minute</li>
+ *     <li>{@code --lazy}: true to request lazy transaction previews</li>
+ *     <li>{@code --record <file>}: write the executed trades to a trace file</li>
+ *     <li>{@code --replay <file>}: execute the trades from a trace file instead of generating them</li>
+ * </ul>
+ * Trace files have one trade per line as {@code minute,player,shop,item,buy|sell,amount}, where shop is -1 for no shop.
+ */
+public final class LoadGenerator {
+
+    private static final BigDecimal PRICE = BigDecimal.TEN;
+
+    static class Options {
+        int players = 1000, shops = 50, items = 600, configured = 300, threads = 4;
+        double zipf = 1.0, buy = 0.5;
+        int minStack = 1, maxStack = 64;
+        long trades = 1_000_000;
+        int perMinute = 10_000;
+        boolean lazy = false;
+        Path record, replay;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String key = args[i];
+                if (i + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + key);
+                String value = args[++i];
+                switch (key) {
+                    case "--players": options.players = Integer.parseInt(value); break;
+                    case "--shops": options.shops = Integer.parseInt(value); break;
+                    case "--items": options.items = Integer.parseInt(value); break;
+                    case "--configured": options.configured = Integer.parseInt(value); break;
+                    case "--threads": options.threads = Integer.parseInt(value); break;
+                    case "--zipf": options.zipf = Double.parseDouble(value); break;
+                    case "--buy": options.buy = Double.parseDouble(value); break;
+                    case "--stack": {
+                        String[] range = value.split("-", 2);
+                        options.minStack = Integer.parseInt(range[0]);
+                        options.maxStack = range.length > 1 ? Integer.parseInt(range[1]) : options.minStack;
+                        break;
+                    }
+                    case "--trades": options.trades = Long.parseLong(value); break;
+                    case "--perMinute": options.perMinute = Integer.parseInt(value); break;
+                    case "--lazy": options.lazy = Boolean.parseBoolean(value); break;
+                    case "--record": options.record = Paths.get(value); break;
+                    case "--replay": options.replay = Paths.get(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + key);
+                }
+            }
+            if (options.players < 1 || options.items < 1 || options.shops < 0 || options.threads < 1 || options.perMinute < 1)
+                throw new IllegalArgumentException("players, items, threads and perMinute have to be positive, shops can't be negative");
+            if (options.minStack < 1 || options.maxStack < options.minStack)
+                throw new IllegalArgumentException("Invalid stack range " + options.minStack + "-" + options.maxStack);
+            options.configured = Math.min(options.configured, options.items);
+            return options;
+        }
+    }
+
+    static final class Trade {
+        final long minute;
+        final int player, shop, item;
+        final boolean purchase;
+        final int amount;
+
+        Trade(long minute, int player, int shop, int item, boolean purchase, int amount) {
+            this.minute = minute;
+            this.player = player;
+            this.shop = shop;
+            this.item = item;
+            this.purchase = purchase;
+            this.amount = amount;
+        }
+
+        static Trade parse(String line) {
+            String[] values = line.split(",");
+            if (values.length != 6)
+                throw new IllegalArgumentException("Invalid trade: " + line);
+            return new Trade(Long.parseLong(values[0].trim()), Integer.parseInt(values[1].trim()), Integer.parseInt(values[2].trim()),
+                    Integer.parseInt(values[3].trim()), "buy".equalsIgnoreCase(values[4].trim()), Integer.parseInt(values[5].trim()));
+        }
+
+        @Override
+        public String toString() {
+            return minute + "," + player + "," + shop + "," + item + "," + (purchase ? "buy" : "sell") + "," + amount;
+        }
+    }
+
+    /** samples indices from 0 (most popular) to n-1 following a zipf distribution */
+    static class ZipfSampler {
+        private final double[] cdf;
+
+        ZipfSampler(int n, double exponent) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) cdf[k] = sum += 1.0 / Math.pow(k + 1, exponent);
+            for (int k = 0; k < n; k++) cdf[k] /= sum;
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            if (index < 0) index = -index - 1;
+            return Math.min(index, cdf.length - 1);
+        }
+    }
+
+    private final Options options;
+    private final PriceCalculator calculator;
+    private final List<Trade> replay;
+    private final ZipfSampler popularity;
+    private final ItemStackSnapshot[] items;
+    private final UUID[] players, shops;
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong next = new AtomicLong();
+    private final LongAdder executed = new LongAdder(), limited = new LongAdder(), rejected = new LongAdder();
+    private final Object tickLock = new Object();
+    private volatile long minute = 0;
+    private final Writer recorder;
+
+    private LoadGenerator(Options options) throws IOException {
+        this.options = options;
+        Headless.install();
+        Clock.use(now::get);
+        replay = options.replay != null ? readTrace(options.replay) : null;
+        int itemCount = options.items, playerCount = options.players, shopCount = options.shops;
+        if (replay != null) for (Trade trade : replay) {
+            itemCount = Math.max(itemCount, trade.item + 1);
+            playerCount = Math.max(playerCount, trade.player + 1);
+            shopCount = Math.max(shopCount, trade.shop + 1);
+        }
+        calculator = Headless.calculator(options.configured);
+        popularity = new ZipfSampler(itemCount, options.zipf);
+        items = new ItemStackSnapshot[itemCount];
+        for (int i = 0; i < items.length; i++) items[i] = Headless.item(i);
+        players = new UUID[playerCount];
+        for (int i = 0; i < players.length; i++) players[i] = new UUID(0L, i);
+        shops = new UUID[shopCount];
+        for (int i = 0; i < shops.length; i++) shops[i] = new UUID(1L, i);
+        recorder = options.record != null ? Files.newBufferedWriter(options.record, StandardCharsets.UTF_8) : null;
+    }
+
+    private static List<Trade> readTrace(Path trace) throws IOException {
+        List<Trade> trades = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(trace, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                trades.add(Trade.parse(line));
+            }
+        }
+        trades.sort(Comparator.comparingLong(t -> t.minute));
+        return trades;
+    }
+
+    /** @return the trade for the index or null if all trades were taken */
+    private Trade trade(long index) {
+        if (replay != null)
+            return index < replay.size() ? replay.get((int) index) : null;
+        if (index >= options.trades) return null;
+        Random random = ThreadLocalRandom.current();
+        return new Trade(index / options.perMinute,
+                random.nextInt(players.length),
+                shops.length == 0 ? -1 : random.nextInt(shops.length),
+                popularity.sample(random),
+                random.nextDouble() < options.buy,
+                options.minStack + random.nextInt(options.maxStack - options.minStack + 1));
+    }
+
+    /** advance the simulated clock minute by minute, ticking like the server would */
+    private void advanceTo(long target) {
+        if (minute >= target) return;
+        synchronized (tickLock) {
+            while (minute < target) {
+                now.addAndGet(60_000L);
+                calculator.thinkTick();
+                calculator.flushPriceChanges();
+                minute++;
+            }
+        }
+    }
+
+    private void execute(Trade trade) throws IOException {
+        UUID player = players[trade.player];
+        UUID shop = trade.shop < 0 ? null : shops[trade.shop];
+        ItemStackSnapshot item = items[trade.item];
+        TransactionPreview preview = trade.purchase
+                ? calculator.getPurchaseInformation(item, trade.amount, PRICE, Headless.CURRENCY, shop, player, options.lazy)
+                : calculator.getSellingInformation(item, trade.amount, PRICE, Headless.CURRENCY, shop, player, options.lazy);
+        int amount = Math.min(trade.amount, preview.getAffordableAmount());
+        if (amount < 1) {
+            limited.increment();
+        } else try {
+            preview.confirm(amount);
+        } catch (IllegalArgumentException e) {
+            // another thread traded the remaining capacity in the meantime
+            rejected.increment();
+        }
+        executed.increment();
+        if (recorder != null) synchronized (recorder) {
+            recorder.write(trade.toString());
+            recorder.write('\n');
+        }
+    }
+
+    private void work() {
+        try {
+            Trade trade;
+            while ((trade = trade(next.getAndIncrement())) != null) {
+                advanceTo(trade.minute);
+                execute(trade);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void run() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>(options.threads);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < options.threads; i++) {
+            Thread worker = new Thread(this::work, "LoadGenerator-" + i);
+            worker.setUncaughtExceptionHandler((t, e) -> errors.add(e));
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        // one more tick to sample the final tracker counts
+        advanceTo(minute + 1);
+        long nanos = System.nanoTime() - start;
+        if (recorder != null) recorder.close();
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        if (!errors.isEmpty()) {
+            errors.get(0).printStackTrace();
+            throw new IllegalStateException(errors.size() + " worker(s) failed");
+        }
+        report(nanos, heapBefore, heapAfter);
+    }
+
+    private void report(long nanos, long heapBefore, long heapAfter) {
+        PriceMetrics metrics = calculator.getMetrics();
+        long trades = executed.sum();
+        System.out.printf("trades: %d in %.2f s (%.0f trades/s) over %d simulated minutes with %d thread(s)%n",
+                trades, nanos / 1e9, trades / (nanos / 1e9), minute, options.threads);
+        System.out.printf("  not affordable: %d, rejected on confirm: %d%n", limited.sum(), rejected.sum());
+        for (PriceMetrics.Operation operation : PriceMetrics.Operation.values()) {
+            System.out.printf("%-14s %10d calls, mean %10.1f us, p50 < %10.1f us, p99 < %10.1f us, max %10.1f us%n",
+                    operation.name().toLowerCase(), metrics.getCount(operation),
+                    metrics.getMeanNanos(operation) / 1e3,
+                    metrics.getPercentileNanos(operation, 0.5) / 1e3,
+                    metrics.getPercentileNanos(operation, 0.99) / 1e3,
+                    metrics.getMaxNanos(operation) / 1e3);
+        }
+        for (PriceMetrics.Scope scope : PriceMetrics.Scope.values()) {
+            System.out.printf("%-8s %8d manipulators, %10d trackers (%d derived)%n", scope.name().toLowerCase(),
+                    metrics.getResidentManipulators(scope), metrics.getTrackerCount(scope), metrics.getDerivedTrackerCount(scope));
+        }
+        System.out.printf("heap: %.1f MB -> %.1f MB (%+.1f MB)%n",
+                heapBefore / 1048576.0, heapAfter / 1048576.0, (heapAfter - heapBefore) / 1048576.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("See the LoadGenerator javadoc for options");
+            System.exit(1);
+            return;
+        }
+        try {
+            new LoadGenerator(options).run();
+        } finally {
+            Clock.useSystemTime();
+        }
+    }
+
+}
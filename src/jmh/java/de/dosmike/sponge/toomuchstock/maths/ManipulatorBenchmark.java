@@ -0,0 +1,38 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.ConfigKeys;
+import org.openjdk.jmh.annotations.*;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracker lookup with a growing number of per item configurations.
+ * Half of the looked up items are configured, the other half use derived trackers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ManipulatorBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int trackers;
+
+    PriceManipulator manipulator;
+    ItemStackSnapshot[] items = new ItemStackSnapshot[1024];
+    int next = 0;
+
+    @Setup
+    public void setup() {
+        Headless.install();
+        manipulator = Headless.manipulator(trackers, ConfigKeys.KEY_GLOBAL);
+        for (int i = 0; i < items.length; i++)
+            items[i] = Headless.item((i * 7919) % (trackers * 2));
+    }
+
+    @Benchmark
+    public ItemTracker getTrackerFor() {
+        return manipulator.getTrackerFor(items[next++ & 1023]);
+    }
+
+}
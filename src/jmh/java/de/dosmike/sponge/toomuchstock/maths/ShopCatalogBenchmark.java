@@ -0,0 +1,74 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.service.PriceQuery;
+import de.dosmike.sponge.toomuchstock.service.PriceQuote;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pricing a full 54 slot shop inventory, once with a batch and once with a buy and sell price per listing.
+ * Each is measured as served from the quote cache and as computed after the trackers changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShopCatalogBenchmark {
+
+    PriceCalculator calculator;
+    List<PriceQuery> catalog = new ArrayList<>(54);
+    UUID shop = UUID.randomUUID();
+    UUID player = UUID.randomUUID();
+    List<ItemTracker> trackers = new ArrayList<>(54);
+
+    @Setup
+    public void setup() {
+        Headless.install();
+        calculator = Headless.calculator(300);
+        for (int i = 0; i < 54; i++)
+            catalog.add(new PriceQuery(Headless.item(i * 11), 1 + i % 64, BigDecimal.TEN));
+        calculator.getCurrentPrices(catalog, shop, player);
+        for (PriceQuery query : catalog)
+            trackers.add(calculator.getGlobalTracker(query.getItem()).get());
+    }
+
+    /** bumps the global trackers versions like trades would, without moving the prices */
+    private void invalidate() {
+        for (ItemTracker tracker : trackers) tracker.merge(tracker);
+    }
+
+    @Benchmark
+    public List<PriceQuote> batchCached() {
+        return calculator.getCurrentPrices(catalog, shop, player);
+    }
+
+    @Benchmark
+    public List<PriceQuote> batchUncached() {
+        invalidate();
+        return calculator.getCurrentPrices(catalog, shop, player);
+    }
+
+    @Benchmark
+    public void perListingCached(Blackhole blackhole) {
+        perListing(blackhole);
+    }
+
+    @Benchmark
+    public void perListingUncached(Blackhole blackhole) {
+        invalidate();
+        perListing(blackhole);
+    }
+
+    private void perListing(Blackhole blackhole) {
+        for (PriceQuery query : catalog) {
+            blackhole.consume(calculator.getCurrentPurchasePrice(query.getItem(), query.getAmount(), query.getStaticPrice(), shop, player));
+            blackhole.consume(calculator.getCurrentSellingPrice(query.getItem(), query.getAmount(), query.getStaticPrice(), shop, player));
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The minutely tick with many resident players, each of them having traded a few items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThinkTickBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int players;
+
+    PriceCalculator calculator;
+
+    @Setup
+    public void setup() {
+        Headless.install();
+        calculator = Headless.calculator(300);
+        UUID shop = UUID.randomUUID();
+        for (int p = 0; p < players; p++) {
+            UUID player = UUID.randomUUID();
+            for (int i = 0; i < 4; i++) {
+                calculator.getPurchaseInformation(Headless.item((p + i * 97) % 600), 16, BigDecimal.ONE, Headless.CURRENCY, shop, player)
+                        .confirm(16);
+            }
+        }
+    }
+
+    @Benchmark
+    public void thinkTick() {
+        calculator.thinkTick();
+    }
+
+}
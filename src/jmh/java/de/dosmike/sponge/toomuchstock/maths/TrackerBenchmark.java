@@ -0,0 +1,45 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.ConfigKeys;
+import org.openjdk.jmh.annotations.*;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catching up on decay after some time and rendering the price history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackerBenchmark {
+
+    /** one tick, exactly the recorded history and one day */
+    @Param({"1", "25", "1440"})
+    long minutes;
+
+    ItemTracker tracker;
+
+    @Setup
+    public void setup() {
+        Headless.install();
+        tracker = Headless.manipulator(0, ConfigKeys.KEY_GLOBAL).getTrackerFor(Headless.item(0));
+        tracker.grow(1000);
+    }
+
+    /** includes a small purchase, so the discrepancy does not decay to 0 and hit the shortcut */
+    @Benchmark
+    public double decayTicks() {
+        tracker.grow(64);
+        tracker.decayTicks(minutes);
+        return tracker.peek();
+    }
+
+    @Benchmark
+    public List<Text> linify() {
+        return tracker.getStonks().linify(10, TextColors.GOLD, true);
+    }
+
+}
@@ -1,6 +1,7 @@
 package de.dosmike.sponge.toomuchstock;
 
 import de.dosmike.sponge.toomuchstock.maths.ItemTracker;
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
 import de.dosmike.sponge.toomuchstock.utils.ApplicabilityFilters;
 import de.dosmike.sponge.toomuchstock.utils.ItemTypeEx;
 import de.dosmike.sponge.toomuchstock.utils.Stonks;
@@ -86,14 +87,19 @@ public class Commands {
                 .permission("toomuchstock.command.reload")
                 .arguments(GenericArguments.flags().flag("-hard").buildWith(GenericArguments.none()))
                 .executor(((src, args) -> {
-                    try {
-                        TooMuchStock.getInstance().loadConfigs(args.hasAny("-hard"));
-                        src.sendMessage(Text.of(TextColors.GREEN, "Reload complete"));
-                        return CommandResult.success();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        throw new CommandException(Text.of(TextColors.RED, "Something went wrong: "+e.getMessage()+"\n Please check the logs!"));
-                    }
+                    src.sendMessage(Text.of(TextColors.GRAY, "Reloading..."));
+                    // completes on the main thread
+                    TooMuchStock.getInstance().reloadConfigs(args.hasAny("-hard")).whenComplete((applied, error) -> {
+                        if (error != null) {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            src.sendMessage(Text.of(TextColors.RED, "Something went wrong: "+cause.getMessage()+"\n Please check the logs!"));
+                        } else if (applied) {
+                            src.sendMessage(Text.of(TextColors.GREEN, "Reload complete"));
+                        } else {
+                            src.sendMessage(Text.of(TextColors.YELLOW, "Reload was superseded by a later reload"));
+                        }
+                    });
+                    return CommandResult.success();
                 }))
                 .build();
     }
@@ -165,11 +171,52 @@ public class Commands {
                 .build();
     }
 
+    static CommandSpec subcmdStats() {
+        return CommandSpec.builder()
+                .permission("toomuchstock.command.stats")
+                .executor(((src, args) -> {
+                    PriceMetrics metrics = TooMuchStock.getPriceCalculator().getMetrics();
+                    src.sendMessage(Text.of(TextColors.AQUA, "=== TooMuchStock Stats ==="));
+                    for (PriceMetrics.Operation operation : PriceMetrics.Operation.values()) {
+                        src.sendMessage(Text.of(TextColors.GRAY, operation.name().toLowerCase().replace('_', ' '), ": ",
+                                TextColors.RESET, metrics.getCount(operation), " calls, mean ",
+                                formatNanos(metrics.getMeanNanos(operation)), ", p99 < ",
+                                formatNanos(metrics.getPercentileNanos(operation, 0.99)), ", max ",
+                                formatNanos(metrics.getMaxNanos(operation))));
+                    }
+                    for (PriceMetrics.Scope scope : PriceMetrics.Scope.values()) {
+                        int growth = metrics.getDerivedTrackerGrowth(scope);
+                        src.sendMessage(Text.of(TextColors.GRAY, scope.name().toLowerCase(), ": ",
+                                TextColors.RESET, metrics.getResidentManipulators(scope), " manipulators, ",
+                                metrics.getTrackerCount(scope), " trackers (",
+                                metrics.getDerivedTrackerCount(scope), " derived, ",
+                                (growth >= 0 ? "+" : ""), growth, " last minute)"));
+                    }
+                    long hits = metrics.getQuoteCacheHits(), lookups = hits + metrics.getQuoteCacheMisses();
+                    src.sendMessage(Text.of(TextColors.GRAY, "quote cache: ", TextColors.RESET, hits, " of ", lookups,
+                            " prices cached", (lookups == 0 ? "" : String.format(" (%.1f%%)", 100.0 * hits / lookups))));
+                    List<Map.Entry<String, Long>> hotItems = metrics.getHotItems(5);
+                    if (!hotItems.isEmpty()) {
+                        src.sendMessage(Text.of(TextColors.GRAY, "Most quoted items:"));
+                        for (Map.Entry<String, Long> e : hotItems)
+                            src.sendMessage(Text.of("  ", e.getKey(), ": ", e.getValue()));
+                    }
+                    return CommandResult.success();
+                }))
+                .build();
+    }
+    private static String formatNanos(double nanos) {
+        if (nanos >= Long.MAX_VALUE) return "inf";
+        if (nanos >= 1_000_000) return String.format("%.1f ms", nanos / 1_000_000);
+        return String.format("%.1f \u00B5s", nanos / 1_000);
+    }
+
     public static void register(TooMuchStock instance) {
         Sponge.getCommandManager().register(instance, CommandSpec.builder()
                 .child(subcmdRegisterItem(), "define", "register")
                 .child(subcmdReload(), "reload")
                 .child(subcmdStonks(), "history", "stonks")
+                .child(subcmdStats(), "stats")
                 .build(), "toomuchstock", "tms");
     }
 
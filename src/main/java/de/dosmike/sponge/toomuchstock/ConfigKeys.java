@@ -3,6 +3,8 @@ package de.dosmike.sponge.toomuchstock;
 /** I can't type for shit, these help prevent typos*/
 public class ConfigKeys {
     public static final String KEY_RESET = "reset";
+    public static final String KEY_UPDATE_INTERVAL = "updateInterval";
+    public static final String KEY_CACHE_BALANCES = "cacheBalances";
     public static final String KEY_DEFAULT = "default";
     public static final String KEY_GLOBAL = "global";
     public static final String KEY_SHOPS = "shops";
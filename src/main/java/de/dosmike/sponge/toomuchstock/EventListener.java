@@ -1,18 +1,37 @@
 package de.dosmike.sponge.toomuchstock;
 
 import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.economy.EconomyTransactionEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.service.economy.account.Account;
+import org.spongepowered.api.service.economy.account.UniqueAccount;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransferResult;
 
 public class EventListener {
 
-//    @Listener
-//    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event) {
-//        TooMuchStock.getPriceCalculator().unloadPlayerState(event.getTargetEntity().getUniqueId());
-//    }
-//
-//    @Listener
-//    public void onPlayerConnect(ClientConnectionEvent.Join event) {
-//        TooMuchStock.getPriceCalculator().loadPlayerState(event.getTargetEntity().getUniqueId());
-//    }
+    @Listener
+    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event) {
+        TooMuchStock.getPriceCalculator().unloadPlayerState(event.getTargetEntity().getUniqueId());
+        TooMuchStock.getPricingEnvironment().forgetBalance(event.getTargetEntity().getUniqueId());
+    }
+
+    @Listener
+    public void onPlayerConnect(ClientConnectionEvent.Join event) {
+        TooMuchStock.getPriceCalculator().loadPlayerState(event.getTargetEntity().getUniqueId());
+        TooMuchStock.getPricingEnvironment().prefetchBalance(event.getTargetEntity().getUniqueId());
+    }
+
+    @Listener
+    public void onEconomyTransaction(EconomyTransactionEvent event) {
+        TransactionResult result = event.getTransactionResult();
+        balanceChanged(result.getAccount());
+        if (result instanceof TransferResult)
+            balanceChanged(((TransferResult) result).getAccountTo());
+    }
+    private static void balanceChanged(Account account) {
+        if (account instanceof UniqueAccount)
+            TooMuchStock.getPricingEnvironment().balanceChanged(((UniqueAccount) account).getUniqueId());
+    }
 
 }
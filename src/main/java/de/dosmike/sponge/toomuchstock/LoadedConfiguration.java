@@ -0,0 +1,50 @@
+package de.dosmike.sponge.toomuchstock;
+
+import de.dosmike.sponge.toomuchstock.maths.PriceManipulator;
+import de.dosmike.sponge.toomuchstock.utils.ItemDefinitions;
+
+/**
+ * The result of parsing the config file. Nothing in here is in use while the configuration
+ * is parsed, so parsing can happen on any thread. Once the parsed configuration is handed
+ * to the main thread it is applied as a whole, or not at all.
+ */
+final class LoadedConfiguration {
+
+    private final ItemDefinitions itemDefinitions;
+    private final PriceManipulator globalManipulatorBase;
+    private final PriceManipulator shopManipulatorBase;
+    private final PriceManipulator playerManipulatorBase;
+    private final int updateInterval;
+    private final boolean cacheBalances;
+
+    LoadedConfiguration(ItemDefinitions itemDefinitions, PriceManipulator globalManipulatorBase, PriceManipulator shopManipulatorBase, PriceManipulator playerManipulatorBase, int updateInterval, boolean cacheBalances) {
+        this.itemDefinitions = itemDefinitions;
+        this.globalManipulatorBase = globalManipulatorBase;
+        this.shopManipulatorBase = shopManipulatorBase;
+        this.playerManipulatorBase = playerManipulatorBase;
+        this.updateInterval = updateInterval;
+        this.cacheBalances = cacheBalances;
+    }
+
+    ItemDefinitions getItemDefinitions() {
+        return itemDefinitions;
+    }
+    PriceManipulator getGlobalManipulatorBase() {
+        return globalManipulatorBase;
+    }
+    PriceManipulator getShopManipulatorBase() {
+        return shopManipulatorBase;
+    }
+    PriceManipulator getPlayerManipulatorBase() {
+        return playerManipulatorBase;
+    }
+    /** @return the amount of ticks between price update events */
+    int getUpdateInterval() {
+        return updateInterval;
+    }
+    /** @return true if account balances are cached until the next economy transaction */
+    boolean isCacheBalances() {
+        return cacheBalances;
+    }
+
+}
@@ -0,0 +1,162 @@
+package de.dosmike.sponge.toomuchstock;
+
+import de.dosmike.sponge.toomuchstock.maths.Clock;
+import de.dosmike.sponge.toomuchstock.maths.PriceManipulator;
+import de.dosmike.sponge.toomuchstock.maths.PriceUpdateEvent;
+import de.dosmike.sponge.toomuchstock.maths.PricingEnvironment;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.UniqueAccount;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** Connects the price calculator to the server, the economy service and the state store */
+class SpongePricingEnvironment implements PricingEnvironment {
+
+    /** cached balances of offline players are dropped after they were not asked for this long */
+    private static final long OFFLINE_EXPIRY = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The balances of a player. Economy transactions replace the entry, keeping the balances from
+     * before as last known values until the refresh completes. Lookups that raced a transaction
+     * write into the replaced entry, so they can't bring back a stale balance.
+     */
+    private static final class CachedBalances {
+        /** balances fetched since the last transaction */
+        final Map<Currency, BigDecimal> current = new ConcurrentHashMap<>();
+        /** balances from before the last transaction */
+        final Map<Currency, BigDecimal> lastKnown;
+        /** currencies with a fetch on the way, so misses don't queue the same lookup again */
+        final Set<Currency> loading = ConcurrentHashMap.newKeySet();
+        volatile long lastUsed = Clock.currentTimeMillis();
+        CachedBalances(Map<Currency, BigDecimal> lastKnown) {
+            this.lastKnown = lastKnown;
+        }
+        /** @return the entry replacing this one after a transaction */
+        CachedBalances next() {
+            Map<Currency, BigDecimal> known = new HashMap<>(lastKnown);
+            known.putAll(current);
+            CachedBalances next = new CachedBalances(known);
+            next.lastUsed = lastUsed;
+            return next;
+        }
+        Set<Currency> currencies() {
+            Set<Currency> currencies = new HashSet<>(lastKnown.keySet());
+            currencies.addAll(current.keySet());
+            return currencies;
+        }
+    }
+    private final Map<UUID, CachedBalances> balances = new ConcurrentHashMap<>();
+    private volatile boolean cacheBalances = true;
+
+    @Override
+    public boolean isOnline(UUID player) {
+        return Sponge.getServer().getPlayer(player).isPresent();
+    }
+
+    /**
+     * With the balance cache enabled this never waits for the economy. Unknown balances are loaded on
+     * the async scheduler, meanwhile the balance from before the last transaction is returned, or null
+     * if there is none yet.
+     */
+    @Nullable
+    @Override
+    public BigDecimal getBalance(UUID player, Currency currency) {
+        if (!cacheBalances) return fetchBalance(player, currency);
+        CachedBalances cached = balances.computeIfAbsent(player, id -> new CachedBalances(Collections.emptyMap()));
+        cached.lastUsed = Clock.currentTimeMillis();
+        BigDecimal balance = cached.current.get(currency);
+        if (balance != null) return balance;
+        refresh(player, cached, Collections.singleton(currency));
+        return cached.lastKnown.get(currency);
+    }
+    private static BigDecimal fetchBalance(UUID player, Currency currency) {
+        Optional<UniqueAccount> account = TooMuchStock.getEconomy().getOrCreateAccount(player);
+        return account.map(uniqueAccount -> uniqueAccount.getBalance(currency)).orElse(BigDecimal.ZERO);
+    }
+
+    boolean isCachingBalances() {
+        return cacheBalances;
+    }
+    void setCacheBalances(boolean cacheBalances) {
+        this.cacheBalances = cacheBalances;
+        if (!cacheBalances) balances.clear();
+    }
+    /** load the balance in the default currency on the async scheduler, so the first preview doesn't go without it */
+    void prefetchBalance(UUID player) {
+        if (!cacheBalances) return;
+        CachedBalances cached = balances.computeIfAbsent(player, id -> new CachedBalances(Collections.emptyMap()));
+        refresh(player, cached, Collections.singleton(TooMuchStock.getEconomy().getDefaultCurrency()));
+    }
+    /** replace the cached balances after a transaction and load them again on the async scheduler */
+    void balanceChanged(UUID player) {
+        CachedBalances replaced = balances.computeIfPresent(player, (id, cached) -> cached.next());
+        if (cacheBalances && replaced != null)
+            refresh(player, replaced, replaced.currencies());
+    }
+    void forgetBalance(UUID player) {
+        balances.remove(player);
+    }
+    /** drop the balances of offline players that were not asked for in a while. has to be called on the main thread */
+    void expireBalances() {
+        long expired = Clock.currentTimeMillis() - OFFLINE_EXPIRY;
+        balances.entrySet().removeIf(e -> e.getValue().lastUsed < expired && !isOnline(e.getKey()));
+    }
+    private void refresh(UUID player, CachedBalances cached, Set<Currency> currencies) {
+        for (Currency currency : currencies) {
+            if (!cached.loading.add(currency)) continue;
+            TooMuchStock.getAsyncScheduler().execute(() -> {
+                try {
+                    cached.current.putIfAbsent(currency, fetchBalance(player, currency));
+                } finally {
+                    cached.loading.remove(currency);
+                }
+            });
+        }
+    }
+
+    @Nullable
+    @Override
+    public BigDecimal getCapacity(UUID player, Currency currency) {
+        return null; //don't know how to get that
+    }
+
+    @Override
+    public void pricesChanged(Set<PriceUpdateEvent.Change> changes, @Nullable ItemStackSnapshot traded) {
+        // the cause stack is only available on the main thread
+        Runnable postEvent = ()->Sponge.getEventManager().post(new PriceUpdateEvent(changes, traded));
+        if (Sponge.getServer().isMainThread())
+            postEvent.run();
+        else
+            TooMuchStock.getSyncScheduler().execute(postEvent);
+    }
+
+    @Override
+    public CompletableFuture<Void> pageOut(UUID player, PriceManipulator manipulator) {
+        return TooMuchStock.getStateStore().pageOut(player, manipulator, TooMuchStock.getAsyncScheduler());
+    }
+
+    @Override
+    public boolean pageIn(UUID player, PriceManipulator manipulator) throws IOException {
+        return TooMuchStock.getStateStore().pageIn(player, manipulator);
+    }
+
+    @Override
+    public void warn(String message) {
+        TooMuchStock.w("%s", message);
+    }
+
+}
@@ -3,6 +3,7 @@ package de.dosmike.sponge.toomuchstock;
 import com.google.inject.Inject;
 import de.dosmike.sponge.toomuchstock.maths.PriceCalculator;
 import de.dosmike.sponge.toomuchstock.maths.PriceManipulator;
+import de.dosmike.sponge.toomuchstock.maths.StateStore;
 import de.dosmike.sponge.toomuchstock.service.PriceCalculationService;
 import de.dosmike.sponge.toomuchstock.service.impl.PriceCalculationProvider;
 import de.dosmike.sponge.toomuchstock.utils.ItemDefinitions;
@@ -23,6 +24,8 @@ import org.spongepowered.api.event.game.GameReloadEvent;
 import org.spongepowered.api.event.game.state.GameInitializationEvent;
 import org.spongepowered.api.event.game.state.GamePostInitializationEvent;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
+import org.spongepowered.api.event.game.state.GameStartedServerEvent;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.event.service.ChangeServiceProviderEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.plugin.PluginContainer;
@@ -35,7 +38,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Plugin(id = "toomuchstock", name = "Too Much Stock", version = "1.0")
 public class TooMuchStock {
@@ -43,9 +49,30 @@ public class TooMuchStock {
     private static TooMuchStock instance;
     private EconomyService economyService = null;
     private SpongeExecutorService syncScheduler = null;
-
-    private ItemDefinitions itemDefinitions = new ItemDefinitions();
-    private PriceCalculator priceCalculator = null;
+    private SpongeExecutorService asyncScheduler = null;
+
+    /**
+     * The item definitions and the price calculator built from them. Replaced as a whole on the
+     * main thread, so async readers never get the parts of two different reloads.
+     */
+    private static final class Published {
+        final ItemDefinitions itemDefinitions;
+        /** null until the first config was loaded */
+        final PriceCalculator priceCalculator;
+        Published(ItemDefinitions itemDefinitions, PriceCalculator priceCalculator) {
+            this.itemDefinitions = itemDefinitions;
+            this.priceCalculator = priceCalculator;
+        }
+    }
+    private volatile Published published = new Published(new ItemDefinitions(), null);
+    /** incremented for every reload, so only the latest reload gets applied */
+    private final AtomicInteger reloadGeneration = new AtomicInteger();
+    private StateStore stateStore = null;
+    private final SpongePricingEnvironment pricingEnvironment = new SpongePricingEnvironment();
+    /** ticks between price update events */
+    private volatile int updateInterval = 1;
+    /** only touched by the update task on the main thread */
+    private int ticksSinceUpdate = 0;
 
     @Listener
     public void onChangeServiceProvider(ChangeServiceProviderEvent event) {
@@ -61,11 +88,16 @@ public class TooMuchStock {
     public static SpongeExecutorService getSyncScheduler() {
         return instance.syncScheduler;
     }
+    public static SpongeExecutorService getAsyncScheduler() {
+        return instance.asyncScheduler;
+    }
     public static ItemDefinitions getItemDefinitionTable() {
-        return instance.itemDefinitions;
+        return instance.published.itemDefinitions;
     }
-    public static PriceCalculator getPriceCalculator() { return instance.priceCalculator; }
+    public static PriceCalculator getPriceCalculator() { return instance.published.priceCalculator; }
     public static Path getCacheDirectory() { return instance.configPath.resolve("cache"); }
+    public static StateStore getStateStore() { return instance.stateStore; }
+    static SpongePricingEnvironment getPricingEnvironment() { return instance.pricingEnvironment; }
 
     PluginContainer getContainer() {
         return Sponge.getPluginManager().fromInstance(this).orElseThrow(()->new InternalError("No plugin container for self returned"));
@@ -94,6 +126,8 @@ public class TooMuchStock {
     public void onServerPreInit(GamePreInitializationEvent event) {
         instance = this;
         syncScheduler = Sponge.getScheduler().createSyncExecutor(this);
+        asyncScheduler = Sponge.getScheduler().createAsyncExecutor(this);
+        stateStore = new StateStore(getCacheDirectory().resolve("state.bin"));
         Sponge.getEventManager().registerListeners(this, new EventListener());
         l("Loading configs...");
         loadConfigs(true);
@@ -107,7 +141,16 @@ public class TooMuchStock {
         l("Registering commands...");
         Commands.register(this);
 
-        syncScheduler.scheduleAtFixedRate(()->priceCalculator.thinkTick(), 1, 1, TimeUnit.MINUTES);
+        syncScheduler.scheduleAtFixedRate(()->published.priceCalculator.thinkTick(), 1, 1, TimeUnit.MINUTES);
+        syncScheduler.scheduleAtFixedRate(pricingEnvironment::expireBalances, 1, 1, TimeUnit.MINUTES);
+        syncScheduler.scheduleAtFixedRate(this::updateTick, 50, 50, TimeUnit.MILLISECONDS);
+    }
+
+    /** posts the price changes collected over the update interval as one event */
+    private void updateTick() {
+        if (++ticksSinceUpdate < updateInterval) return;
+        ticksSinceUpdate = 0;
+        published.priceCalculator.flushPriceChanges();
     }
 
     @Listener
@@ -121,16 +164,113 @@ public class TooMuchStock {
 
     }
 
+    @Listener
+    public void onServerStarted(GameStartedServerEvent event) {
+        // item types and currencies are all registered now
+        loadState();
+        syncScheduler.scheduleAtFixedRate(this::saveState, 5, 5, TimeUnit.MINUTES);
+    }
+
+    @Listener
+    public void onServerStopping(GameStoppingServerEvent event) {
+        // the async scheduler might not finish during shutdown, write on this thread
+        try {
+            stateStore.save(published.priceCalculator);
+        } catch (IOException e) {
+            w("Could not save the market state: %s", e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     @Listener
     public void onPluginReload(GameReloadEvent event) {
-        loadConfigs(false);
+        reloadConfigs(false);
     }
 
+    /** parses and applies the config on the calling thread. used on startup, where everything has to be ready on return */
     void loadConfigs(boolean hard) {
+        try {
+            applyConfigs(parseConfigs(), hard);
+        } catch (IOException | ObjectMappingException e) {
+            reportConfigError(e);
+        }
+    }
+
+    /**
+     * Parses the config on the async scheduler and applies it on the main thread. Quotes keep
+     * using the previous configuration until the parsed configuration is applied as a whole.
+     * If another reload is started in the meantime, only the latest one is applied.
+     * Errors are reported on the main thread before the future completes.
+     * @return a future completing on the main thread with true, if this reload was applied
+     */
+    CompletableFuture<Boolean> reloadConfigs(boolean hard) {
+        int generation = reloadGeneration.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return parseConfigs();
+            } catch (IOException | ObjectMappingException e) {
+                throw new CompletionException(e);
+            }
+        }, asyncScheduler).handleAsync((loaded, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                reportConfigError(cause);
+                throw new CompletionException(cause);
+            }
+            if (generation != reloadGeneration.get())
+                return false; // a later reload will apply its own configuration
+            applyConfigs(loaded, hard);
+            return true;
+        }, syncScheduler);
+    }
+
+    /** publishes a parsed configuration. has to be called on the main thread */
+    private void applyConfigs(LoadedConfiguration loaded, boolean hard) {
+        updateInterval = loaded.getUpdateInterval();
+        pricingEnvironment.setCacheBalances(loaded.isCacheBalances());
+        PriceCalculator previous = published.priceCalculator;
+        if (hard || previous==null) {
+            PriceCalculator calculator = PriceCalculator.builder()
+                    .setEnvironment(pricingEnvironment)
+                    .setGlobalManipulatorTemplate(loaded.getGlobalManipulatorBase())
+                    .setShopsManipulatorTemplate(loaded.getShopManipulatorBase())
+                    .setPlayerManipulatorTemplate(loaded.getPlayerManipulatorBase())
+                    .build();
+            if (previous != null) {
+                previous.flushPriceChanges();
+                previous.retire();
+                // hard reloads start the market over, the new calculator must not page in old player states
+                stateStore.discardPlayerStates(asyncScheduler).exceptionally(t -> {
+                    w("Could not delete the player states: %s", t.getMessage());
+                    return null;
+                });
+                calculator.adoptSubscriptions(previous);
+            }
+            published = new Published(loaded.getItemDefinitions(), calculator);
+        } else {
+            // quotes running meanwhile see either the old or the new rates, never both
+            previous.mergeManipulators(loaded.getGlobalManipulatorBase(), loaded.getShopManipulatorBase(), loaded.getPlayerManipulatorBase());
+            published = new Published(loaded.getItemDefinitions(), previous);
+        }
+    }
+
+    private void reportConfigError(Throwable error) {
+        if (error instanceof ObjectMappingException) {
+            Sponge.getServer().getBroadcastChannel().send(Text.of(TextColors.YELLOW,
+                String.format("Could not load config: %s", error.getMessage())
+            ));
+        }
+        error.printStackTrace();
+    }
+
+    /**
+     * Reads the config file and parses everything into a new configuration, without touching
+     * the active one. Safe to call from any thread.
+     */
+    private LoadedConfiguration parseConfigs() throws IOException, ObjectMappingException {
 
         HoconConfigurationLoader defaultLoader = HoconConfigurationLoader.builder().setURL(Sponge.getAssetManager().getAsset(instance, "default.conf").get().getUrl()).build();
         CommentedConfigurationNode defaultRoot = null;
-        CommentedConfigurationNode config = null;
 
         try {
             defaultRoot = defaultLoader.load(ConfigurationOptions.defaults());
@@ -153,47 +293,46 @@ public class TooMuchStock {
                 }
             }
         } catch (Exception e) { //should always load
-            e.printStackTrace();
-            return;
+            throw new IOException("Could not load the default config", e);
+        }
+        CommentedConfigurationNode config = configManager.load(ConfigurationOptions.defaults());
+        if (config.getNode(ConfigKeys.KEY_DEFAULT).isVirtual() ||
+            config.getNode(ConfigKeys.KEY_ITEMS).isVirtual() ||
+            config.getNode(ConfigKeys.KEY_RESET).isVirtual()) {
+            config = config.mergeValuesFrom(defaultRoot);
+            configManager.save(config);
         }
-        try {
-            config = configManager.load(ConfigurationOptions.defaults());
-            if (config.getNode(ConfigKeys.KEY_DEFAULT).isVirtual() ||
-                config.getNode(ConfigKeys.KEY_ITEMS).isVirtual() ||
-                config.getNode(ConfigKeys.KEY_RESET).isVirtual()) {
-                config = config.mergeValuesFrom(defaultRoot);
-                configManager.save(config);
-            }
 
-            ItemDefinitions definitions = new ItemDefinitions();
-            for (Map.Entry<Object, ? extends CommentedConfigurationNode> entry : config.getNode(ConfigKeys.KEY_ITEMS).getChildrenMap().entrySet()) {
-                definitions.fromConfiguration(entry.getKey().toString(), entry.getValue());
-            }
-            itemDefinitions = definitions;
-
-            PriceManipulator globalManipulatorBase = PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_GLOBAL);
-            PriceManipulator shopManipulatorBase = PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_SHOPS);
-            PriceManipulator playerManipulatorBase = PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_PLAYERS);
-            if (hard || priceCalculator==null) {
-                priceCalculator = PriceCalculator.builder()
-                        .setGlobalManipulatorTemplate(globalManipulatorBase)
-                        .setShopsManipulatorTemplate(shopManipulatorBase)
-                        .setPlayerManipulatorTemplate(playerManipulatorBase)
-                        .build();
-            } else {
-                priceCalculator.mergeManipulators(globalManipulatorBase, shopManipulatorBase, playerManipulatorBase);
-            }
+        ItemDefinitions definitions = new ItemDefinitions();
+        for (Map.Entry<Object, ? extends CommentedConfigurationNode> entry : config.getNode(ConfigKeys.KEY_ITEMS).getChildrenMap().entrySet()) {
+            definitions.fromConfiguration(entry.getKey().toString(), entry.getValue());
+        }
 
+        return new LoadedConfiguration(definitions,
+                PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_GLOBAL, definitions),
+                PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_SHOPS, definitions),
+                PriceManipulator.fromConfiguration(config, ConfigKeys.KEY_PLAYERS, definitions),
+                Math.max(1, config.getNode(ConfigKeys.KEY_UPDATE_INTERVAL).getInt(1)),
+                config.getNode(ConfigKeys.KEY_CACHE_BALANCES).getBoolean(true));
+    }
+
+    void loadState() {
+        long start = System.currentTimeMillis();
+        try {
+            if (stateStore.load(published.priceCalculator))
+                l("Restored market state in %d ms", System.currentTimeMillis()-start);
         } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        } catch (ObjectMappingException e) {
-            Sponge.getServer().getBroadcastChannel().send(Text.of(TextColors.YELLOW,
-                String.format("Could not load config: %s", e.getMessage())
-            ));
+            w("Could not restore the market state, prices start fresh: %s", e.getMessage());
             e.printStackTrace();
         }
+    }
 
+    /** captures the market state on the main thread and writes it asynchronously */
+    void saveState() {
+        stateStore.saveAsync(published.priceCalculator, asyncScheduler).exceptionally(t -> {
+            w("Could not save the market state: %s", t.getMessage());
+            return null;
+        });
     }
 
     void saveConfigs() {
@@ -201,9 +340,14 @@ public class TooMuchStock {
         try {
             CommentedConfigurationNode config = configManager.createEmptyNode();
 
-            itemDefinitions.toConfiguration(config.getNode(ConfigKeys.KEY_ITEMS).setComment("Can be created with in-game commands to e.g. register vote-keys"));
+            Published published = this.published;
+            published.itemDefinitions.toConfiguration(config.getNode(ConfigKeys.KEY_ITEMS).setComment("Can be created with in-game commands to e.g. register vote-keys"));
 
-            priceCalculator.dumpBaseConfiguration(config);
+            published.priceCalculator.dumpBaseConfiguration(config);
+            config.getNode(ConfigKeys.KEY_UPDATE_INTERVAL).setValue(updateInterval)
+                    .setComment("Price changes are collected and announced to other plugins at most once every this many ticks");
+            config.getNode(ConfigKeys.KEY_CACHE_BALANCES).setValue(pricingEnvironment.isCachingBalances())
+                    .setComment("Remember account balances until the next economy transaction, instead of asking the economy plugin for every price preview");
 
             configManager.save(config);
         } catch (IOException e) {
@@ -0,0 +1,35 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The time source for decay, resets and eviction. Trackers catch up lazily on the time
+ * that passed, so simulations can replace the source and skip ahead instead of waiting.
+ */
+public final class Clock {
+
+    private static volatile LongSupplier source = System::currentTimeMillis;
+
+    private Clock() {}
+
+    /** @return the current time in ms */
+    public static long currentTimeMillis() {
+        return source.getAsLong();
+    }
+
+    /** @return the current minute since epoch */
+    static long currentMinute() {
+        return currentTimeMillis()/60_000L;
+    }
+
+    /** replace the time source, e.g. for simulations. should not go backwards */
+    public static void use(LongSupplier timeSource) {
+        source = timeSource;
+    }
+
+    /** go back to the system time */
+    public static void useSystemTime() {
+        source = System::currentTimeMillis;
+    }
+
+}
@@ -1,89 +1,103 @@
 package de.dosmike.sponge.toomuchstock.maths;
 
 import com.google.common.base.Objects;
-import com.google.common.reflect.TypeToken;
-import de.dosmike.sponge.toomuchstock.ConfigKeys;
-import de.dosmike.sponge.toomuchstock.TooMuchStock;
 import de.dosmike.sponge.toomuchstock.utils.*;
 import ninja.leaping.configurate.ConfigurationNode;
-import ninja.leaping.configurate.ValueType;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.service.economy.Currency;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * Holds the current state (discrepancy, limit counters, history) for one item in one
+ * scope. The configuration is shared, so a tracker only costs its state.<br>
+ * All state in a tracker is guarded by the trackers monitor, so trackers can be used
+ * from multiple threads. Code that has to lock multiple trackers at once has to lock
+ * them in scope order (global, shop, player) to prevent deadlocks.
+ */
 public class ItemTracker {
 
-    private static final int stonkDuration = 25; //minutes
-    private Stonks stonks = new Stonks(stonkDuration);
+    static final int stonkDuration = 25; //minutes
+    private final Stonks stonks = new Stonks(stonkDuration);
 
     /** Checks whether the supplied item stack will be affected by this tracker */
-    private ApplicabilityFilters<?> applicabilityFilter;
+    private final ApplicabilityFilters<?> applicabilityFilter;
     /** Stores the name of a item definition or item type for serialization */
-    private String filterName = "Custom";
+    private final String filterName;
 
     /**
-     * From the players view income is positive, so the max value is the amount
-     * players can earn by selling items.
+     * The configuration is shared with all trackers created from the same configuration
+     * and only replaced on reload.
      */
-    private Map<Currency, BiBoundBigDecimalValue> incomeLimit = new HashMap<>();
-    /**
-     * From the players view income is positive, so the max value is the amount
-     * players can spend on buying items.
-     */
-    private Map<Currency, BiBoundBigDecimalValue> spendingLimit = new HashMap<>();
+    private volatile TrackerConfiguration configuration;
+
     /**
-     * Too keep signs in line with the income limit, a player can sell a total of
-     * itemLimit#getMax() items or buy a total of itemBuyLimit#getMin()
+     * Too keep signs in line with the income limit, these count the items bought and
+     * sold up to the configured item limits.
      */
-    private BiBoundIntegerValue itemBuyLimit;
+    private int itemsBought, itemsSold;
     /**
-     * Too keep signs in line with the income limit, a player can buy a total
-     * of itemSellLimit#getMax()
+     * From the players view income is positive, so these count the amount earned by
+     * selling and spent on buying items per currency. Only allocated once used.
      */
-    private BiBoundIntegerValue itemSellLimit;
+    private Map<Currency, BigDecimal> earned = null, spent = null;
 
     /**
-     * The rate at which the price for this item goes down every time a single item
-     * is sold to an admin shop
+     * The current price discrepancy to the price.
+     * This means the price to use is price*(discrepancy+1).
+     * The rance for this value should never drop below 0
      */
-    private double growthRate;
+    private double discrepancy;
 
     /**
-     * The rate at which the price for this item goes down every time a single item
-     * is sold to an admin shop
+     * The minute (since epoch) the discrepancy was last decayed to. Instead of
+     * decaying every tracker every minute, the decay for all minutes passed is
+     * applied when the tracker is used the next time.
      */
-    private double decayRate;
-
+    private long lastUpdate = currentMinute();
+    /** The reset schedule of the manipulator owning this tracker, or null */
+    private ResetSchedule resetSchedule = null;
+    /** The reset epoch of the schedule this tracker was last reset in */
+    private int resetEpoch;
+    /** The minute (since epoch) this tracker was last looked up or traded with */
+    private volatile long lastTouched = currentMinute();
     /**
-     * The half life for the price discrepancy (based on growthRate and decayRate)
-     * returning to the initial price in minutes is set by the configuration.
-     * In order to update the price every minute the decay constant (lambda) is
-     * required to calculate N(t+1) = N(t) * e ^ (-lambda * 1).
-     * From the half-life the decay constant is calculated as lambda = ln(2) / halfLife
+     * Counts changes to the discrepancy and configuration of this tracker, so prices computed
+     * from it can be cached until it changes.
      */
-    private double decayConstant;
-    /** Configuration value */
-    private long halfLife;
+    private long version = 0L;
+    /** The version last reported as price change, see {@link #pollChanged()} */
+    private long reportedVersion = 0L;
+
+    ItemTracker(String filterName, ApplicabilityFilters<?> filter, TrackerConfiguration configuration) {
+        this.filterName = filterName;
+        this.applicabilityFilter = filter;
+        this.configuration = configuration;
+    }
 
     /**
-     * In order to keep resales at bay the dispersion devaluation is a factor [1..0]
-     * that's multiplied onto the price tag every time a player sells items to
-     * admin shops.
+     * Set once this tracker was dropped by its manipulator. Handles that pinned this
+     * tracker have to look up the current tracker instead.
      */
-    private double dispersionDevaluation;
+    private volatile boolean retired = false;
 
-    /**
-     * The current price discrepancy to the price.
-     * This means the price to use is price*(discrepancy+1).
-     * The rance for this value should never drop below 0
-     */
-    private double discrepancy;
+    static long currentMinute() {
+        return Clock.currentMinute();
+    }
 
     public Predicate<ItemStackSnapshot> getApplicabilityFilter() {
         return applicabilityFilter;
@@ -91,28 +105,26 @@ public class ItemTracker {
     String getApplicabilityFilterName() {
         return filterName;
     }
+    /** @return the item type this trackers filter is restricted to, if any */
+    Optional<ItemType> getFilteredType() {
+        return applicabilityFilter.getFilteredType();
+    }
+    /**
+     * @return the configuration key for configured trackers or the item type id for derived
+     * trackers, as they all share the default configuration key
+     */
+    String getItemKey() {
+        return derived ? getFilteredType().map(ItemType::getId).orElse("") : filterName;
+    }
+    public TrackerConfiguration getConfiguration() {
+        return configuration;
+    }
 
     /**
      * Creates a new tracker with the same configuration, but the supplied applicability filter
      */
     public ItemTracker newTracker(ApplicabilityFilters<?> filter) {
-        ItemTracker copy = new ItemTracker();
-        copy.applicabilityFilter = filter;
-        copy.filterName = filterName;
-        copy.decayConstant = decayConstant;
-        copy.decayRate = decayRate;
-        copy.discrepancy = 0;
-        copy.dispersionDevaluation = 0;
-        copy.growthRate = growthRate;
-        for (Map.Entry<Currency, BiBoundBigDecimalValue> e : incomeLimit.entrySet()) {
-            copy.incomeLimit.put(e.getKey(), new BiBoundBigDecimalValue(BigDecimal.ZERO, e.getValue().getMax()));
-        }
-        for (Map.Entry<Currency, BiBoundBigDecimalValue> e : spendingLimit.entrySet()) {
-            copy.spendingLimit.put(e.getKey(), new BiBoundBigDecimalValue(BigDecimal.ZERO, e.getValue().getMax()));
-        }
-        copy.itemBuyLimit = new BiBoundIntegerValue(0, itemBuyLimit.getMax());
-        copy.itemSellLimit = new BiBoundIntegerValue(0, itemSellLimit.getMax());
-        return copy;
+        return new ItemTracker(filterName, filter, configuration);
     }
 
     public ItemTracker clone() {
@@ -121,22 +133,12 @@ public class ItemTracker {
 
     /** pull values from another instance to minimize abuse on reload */
     public void merge(ItemTracker other) {
-        decayConstant = other.decayConstant;
-        decayRate = other.decayRate;
-        growthRate = other.growthRate;
-        dispersionDevaluation = other.dispersionDevaluation;
-
-        incomeLimit.clear();
-        incomeLimit.putAll(other.incomeLimit);
-        spendingLimit.clear();
-        spendingLimit.putAll(other.spendingLimit);
-
-        int oldVal = itemBuyLimit.getValue();
-        itemBuyLimit = new BiBoundIntegerValue(other.itemBuyLimit.getMin(), other.itemBuyLimit.getMax());
-        try { itemBuyLimit.setValue(oldVal); } catch (Exception ignore) {}
-        oldVal = itemSellLimit.getValue();
-        itemSellLimit = new BiBoundIntegerValue(other.itemSellLimit.getMin(), other.itemSellLimit.getMax());
-        try { itemSellLimit.setValue(oldVal); } catch (Exception ignore) {}
+        merge(other.configuration);
+    }
+    /** use the new configuration. counters beyond the new limits count as exhausted */
+    public synchronized void merge(TrackerConfiguration configuration) {
+        this.configuration = configuration;
+        version++; // rates might have changed
     }
 
     @Override
@@ -150,20 +152,77 @@ public class ItemTracker {
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(applicabilityFilter, filterName);
+        // equals ignores the case of the name
+        return Objects.hashCode(applicabilityFilter, filterName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Applies a pending reset or the decay for all minutes that passed since this
+     * tracker was last updated. This is called by everything that reads or writes the discrepancy
+     * or history, so trackers no longer have to be ticked every minute.
+     */
+    synchronized void catchUp() {
+        if (resetSchedule != null && resetEpoch != resetSchedule.getEpoch()) {
+            resetEpoch = resetSchedule.getEpoch();
+            reset(); // no decay left and the limits start over
+            return;
+        }
+        long now = currentMinute();
+        if (now > lastUpdate) {
+            long minutes = now - lastUpdate;
+            lastUpdate = now;
+            decayTicks(minutes);
+        }
+    }
+    /** let this tracker reset lazily with the specified schedule */
+    synchronized void attach(ResetSchedule schedule) {
+        resetSchedule = schedule;
+        resetEpoch = schedule.getEpoch();
+    }
+    void retire() {
+        retired = true;
+    }
+    /** @return true if this tracker is no longer used by its manipulator */
+    public boolean isRetired() {
+        return retired;
+    }
+    /** mark this tracker as in use, so it won't be evicted while idle */
+    void touch() {
+        lastTouched = currentMinute();
+    }
+    /** @return the modification counter for prices, after applying pending decay and resets */
+    synchronized long getVersion() {
+        catchUp();
+        return version;
+    }
+    /**
+     * Applies pending decay and resets and marks the current state as reported.
+     * @return true if the prices changed since this was last called
+     */
+    synchronized boolean pollChanged() {
+        catchUp();
+        boolean changed = version != reportedVersion;
+        reportedVersion = version;
+        return changed;
+    }
+    /** @return the amount of minutes since this tracker was last looked up or traded with */
+    long getMinutesUntouched() {
+        return currentMinute() - lastTouched;
     }
 
     /**
      * In order to update the price every minute the decay constant (lambda) is
      * required to calculate N(t+1) = N(t) * e ^ (-lambda * 1).
-     * This method expects to be called once a minute, and the decayConstant to be
-     * pre-calculated.
+     * This method performs the decay for a single minute and the decayConstant
+     * has to be pre-calculated. Usually you want to {@link #catchUp()} instead.
      */
-    public void decayTick() {
+    public synchronized void decayTick() {
         // finalize old value
         stonks.update(discrepancy);
         stonks.push();
+        double previous = discrepancy;
         //decay discrepancy
+        double decayConstant = configuration.getDecayConstant();
         if (decayConstant == 0)
         {/* don't decay */}
         else if (Math.abs(discrepancy) > Double.MIN_VALUE) { //avoid unnecessary computations
@@ -171,6 +230,7 @@ public class ItemTracker {
         }
         else
             discrepancy = 0d; // make it absolute 0, no uncertainty
+        if (discrepancy != previous) version++; // settled trackers keep their cached prices
         //update new value
         stonks.update(discrepancy);
     }
@@ -180,16 +240,19 @@ public class ItemTracker {
      * Similar to {@link #decayTick} the formula is N(t+x) = N(t) * e ^ (-lambda * x) where x is
      * the number of time steps.
      */
-    public void decayTicks(long minutes) {
+    public synchronized void decayTicks(long minutes) {
         //we can fast forward all values that do not get recorded into the visualization
         int reffedValueCount = stonkDuration+1; //because the last value still shows delta value
         if (minutes > reffedValueCount+1) { //skip atleast 2 values, otherwise just push
             long doForward = minutes-reffedValueCount;
+            double previous = discrepancy;
+            double decayConstant = configuration.getDecayConstant();
             if (decayConstant == 0) {/* don't decay */}
             else if (Math.abs(discrepancy) > Double.MIN_VALUE) {
-                discrepancy = discrepancy * Math.exp(-decayConstant * (minutes - doForward));
+                discrepancy = discrepancy * Math.exp(-decayConstant * doForward);
             }
             if (Math.abs(discrepancy) <= Double.MIN_VALUE) discrepancy = 0;
+            if (discrepancy != previous) version++;
             minutes -= doForward;
         }
         //loop over the rest to actually refresh the stonk tracker/graphic
@@ -199,15 +262,23 @@ public class ItemTracker {
     }
 
     /**
-     * Resets this manipulator
+     * Starts a new reset period: clears the discrepancy, the history and the item and value
+     * counters, as the limits only apply within a reset period.
      */
-    public void reset() {
+    public synchronized void reset() {
         discrepancy = 0d;
-        stonks = new Stonks(stonkDuration);
+        stonks.clear();
+        itemsBought = 0;
+        itemsSold = 0;
+        earned = null;
+        spent = null;
+        lastUpdate = currentMinute();
+        version++;
     }
 
     /** @return true if the history tracker for this tracker is filled with 1s */
-    public boolean isIdle() {
+    public synchronized boolean isIdle() {
+        catchUp();
         return stonks.isIdle();
     }
 
@@ -215,17 +286,18 @@ public class ItemTracker {
      * Does not change the discrepancy or any other factor within this tracker.
      * @return the current price multiplier as (discrepancy+1)
      */
-    public double peek() {
+    public synchronized double peek() {
+        catchUp();
         return 1.0+discrepancy;
     }
     public double getDecayRate() {
-        return decayRate;
+        return configuration.getDecayRate();
     }
     public double getGrowthRate() {
-        return growthRate;
+        return configuration.getGrowthRate();
     }
     public double getDispersionDevaluation() {
-        return dispersionDevaluation;
+        return configuration.getDispersionDevaluation();
     }
 
     /**
@@ -233,11 +305,24 @@ public class ItemTracker {
      * @param amount the amount of items that this modifier got applied to and thus the amount of times decay happens.
      * @return the current price multiplier as (discrepancy+1)
      */
-    public double decay(int amount) {
+    public synchronized double decay(int amount) {
+        catchUp();
+        touch();
         double multiplier = 1.0+discrepancy;
-        discrepancy = DecayUtil.exponentialDecay(multiplier, decayRate, amount)-1.0;
+        discrepancy = DecayUtil.exponentialDecay(multiplier, configuration.getDecayRate(), amount)-1.0;
+        version++;
         stonks.update(discrepancy);
-        itemSellLimit.increase(amount);
+        itemsSold = count(itemsSold, amount, configuration.getItemSellLimit());
+        return multiplier;
+    }
+    /**
+     * Like {@link #decay(int)}, but also counts the value the items were sold for towards the income limit.
+     * @param value the value of all items sold, as paid to the player
+     * @return the current price multiplier as (discrepancy+1)
+     */
+    public synchronized double decay(int amount, Currency currency, BigDecimal value) {
+        double multiplier = decay(amount);
+        earned = count(earned, currency, value, configuration.getIncomeLimit(currency));
         return multiplier;
     }
     /**
@@ -245,11 +330,24 @@ public class ItemTracker {
      * @param amount the amount of items that this modifier got applied to and thus the amount of times growth happens.
      * @return the current price multiplier as (discrepancy+1)
      */
-    public double grow(int amount) {
+    public synchronized double grow(int amount) {
+        catchUp();
+        touch();
         double multiplier = 1.0+discrepancy;
-        discrepancy = DecayUtil.exponentialGrowth(multiplier, growthRate, amount)-1.0;
+        discrepancy = DecayUtil.exponentialGrowth(multiplier, configuration.getGrowthRate(), amount)-1.0;
+        version++;
         stonks.update(discrepancy);
-        itemBuyLimit.increase(amount);
+        itemsBought = count(itemsBought, amount, configuration.getItemBuyLimit());
+        return multiplier;
+    }
+    /**
+     * Like {@link #grow(int)}, but also counts the value the items were bought for towards the spending limit.
+     * @param value the value of all items bought, as paid by the player
+     * @return the current price multiplier as (discrepancy+1)
+     */
+    public synchronized double grow(int amount, Currency currency, BigDecimal value) {
+        double multiplier = grow(amount);
+        spent = count(spent, currency, value, configuration.getSpendingLimit(currency));
         return multiplier;
     }
 
@@ -262,124 +360,134 @@ public class ItemTracker {
         return derived;
     }
 
+    /**
+     * count up, but not beyond the limit. Without a limit there is nothing to count, so
+     * trackers for unlimited items stay pristine and can be evicted once they settle.
+     */
+    private static int count(int value, int amount, @Nullable Integer limit) {
+        if (limit == null) return 0;
+        long counted = (long)value + amount;
+        if (counted > limit) counted = Math.max(value, limit);
+        return (int)Math.min(counted, Integer.MAX_VALUE);
+    }
+    /** count up the value in the currency, but not beyond the limit. Without a limit there is nothing to count */
+    @Nullable
+    private static Map<Currency, BigDecimal> count(@Nullable Map<Currency, BigDecimal> values, Currency currency, BigDecimal amount, @Nullable BigDecimal limit) {
+        if (limit == null) return values;
+        if (values == null) values = new HashMap<>(2);
+        BigDecimal value = values.getOrDefault(currency, BigDecimal.ZERO);
+        BigDecimal counted = value.add(amount);
+        if (counted.compareTo(limit) > 0) counted = value.max(limit);
+        values.put(currency, counted);
+        return values;
+    }
+    /** @return how many more items fit within the limit */
+    private static int remaining(int value, @Nullable Integer limit) {
+        return limit == null ? Integer.MAX_VALUE : Math.max(0, limit - value);
+    }
+    /** @return how much more value fits within the limit */
+    private static BigDecimal remaining(@Nullable Map<Currency, BigDecimal> values, Currency currency, @Nullable BigDecimal limit) {
+        if (limit == null) return BigDecimal.valueOf(Integer.MAX_VALUE); //unregulated
+        BigDecimal value = values == null ? null : values.get(currency);
+        return value == null ? limit : limit.subtract(value).max(BigDecimal.ZERO);
+    }
+
     /** @return how many of this item are still purchasable within this tracker */
-    public int getPurchaseItemCapacity() {
-        Integer volume = itemBuyLimit.getIncreaseVolume();
-        return volume == null ? Integer.MAX_VALUE : volume;
+    public synchronized int getPurchaseItemCapacity() {
+        catchUp(); // a pending reset frees the limits
+        return remaining(itemsBought, configuration.getItemBuyLimit());
     }
     /** @return how many of this item are still distributable within this tracker */
-    public int getDistributeItemCapacity() {
-        Integer volume = itemSellLimit.getIncreaseVolume();
-        return volume == null ? Integer.MAX_VALUE : volume;
+    public synchronized int getDistributeItemCapacity() {
+        catchUp(); // a pending reset frees the limits
+        return remaining(itemsSold, configuration.getItemSellLimit());
     }
     /** @return how much money worth of this item is still purchasable within this tracker */
-    public BigDecimal getPurchaseValueCapacity(Currency currency) {
-        if (!spendingLimit.containsKey(currency)) return BigDecimal.valueOf(Integer.MAX_VALUE); //unregulated
-        BigDecimal volume = spendingLimit.get(currency).getIncreaseVolume();
-        return volume == null ? BigDecimal.valueOf(Integer.MAX_VALUE) : volume;
+    public synchronized BigDecimal getPurchaseValueCapacity(Currency currency) {
+        catchUp(); // a pending reset frees the limits
+        return remaining(spent, currency, configuration.getSpendingLimit(currency));
     }
     /** @return how much money worth of this item is still distributable within this tracker */
-    public BigDecimal getDistributeValueCapacity(Currency currency) {
-        if (!incomeLimit.containsKey(currency)) return BigDecimal.valueOf(Integer.MAX_VALUE); //unregulated
-        BigDecimal volume = incomeLimit.get(currency).getIncreaseVolume();
-        return volume == null ? BigDecimal.valueOf(Integer.MAX_VALUE) : volume;
+    public synchronized BigDecimal getDistributeValueCapacity(Currency currency) {
+        catchUp(); // a pending reset frees the limits
+        return remaining(earned, currency, configuration.getIncomeLimit(currency));
     }
 
-    public Stonks getStonks() {
+    public synchronized Stonks getStonks() {
+        catchUp();
         return stonks;
     }
 
-    public static ItemTracker fromConfiguration(String filterName, ApplicabilityFilters<?> filter, ConfigurationNode node) throws ObjectMappingException {
-        ItemTracker result = new ItemTracker();
-        ConfigurationNode n;
-        for (Currency currency : TooMuchStock.getEconomy().getCurrencies()) {
-            n = node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).getNode(currency.getId());
-            if (!n.isVirtual()) {
-                BigDecimal value = n.getValue(TypeToken.of(BigDecimal.class));
-                if (value == null && n.getValueType().equals(ValueType.SCALAR))
-                    value = BigDecimal.valueOf(n.getDouble());
-                if (value != null)
-                    result.incomeLimit.put(currency, new BiBoundBigDecimalValue( BigDecimal.ZERO, value, BigDecimal.ZERO));
-            }
-            n = node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).getNode(currency.getId());
-            if (!n.isVirtual()) {
-                BigDecimal value = n.getValue(TypeToken.of(BigDecimal.class));
-                if (value == null && n.getValueType().equals(ValueType.SCALAR))
-                    value = BigDecimal.valueOf(n.getDouble());
-                if (value != null)
-                    result.spendingLimit.put(currency, new BiBoundBigDecimalValue( BigDecimal.ZERO, value, BigDecimal.ZERO));
+    /** @return true if this tracker is idle and no limits were used, so there's nothing worth saving */
+    synchronized boolean isPristine() {
+        return isIdle() && itemsBought == 0 && itemsSold == 0 && isZero(earned) && isZero(spent);
+    }
+    private static boolean isZero(@Nullable Map<Currency, BigDecimal> values) {
+        if (values != null) for (BigDecimal value : values.values())
+            if (value.signum() != 0) return false;
+        return true;
+    }
+
+    /** writes the current discrepancy, limit values and history. configuration values are not written */
+    synchronized void writeState(DataOutput out) throws IOException {
+        catchUp();
+        out.writeDouble(discrepancy);
+        out.writeInt(itemsBought);
+        out.writeInt(itemsSold);
+        writeLimitValues(out, earned);
+        writeLimitValues(out, spent);
+        stonks.writeTo(out);
+    }
+    /**
+     * reads values written by {@link #writeState}. Limit values that no longer fit the
+     * configured limits are capped. Decay from the time of writing has to be applied
+     * separately with {@link #decayTicks}.
+     */
+    synchronized void readState(DataInput in) throws IOException {
+        TrackerConfiguration configuration = this.configuration;
+        discrepancy = in.readDouble();
+        itemsBought = count(0, in.readInt(), configuration.getItemBuyLimit());
+        itemsSold = count(0, in.readInt(), configuration.getItemSellLimit());
+        earned = readLimitValues(in, configuration.getIncomeLimitCurrencies(), configuration::getIncomeLimit);
+        spent = readLimitValues(in, configuration.getSpendingLimitCurrencies(), configuration::getSpendingLimit);
+        stonks.readFrom(in);
+        lastUpdate = currentMinute();
+        version++;
+        if (resetSchedule != null) resetEpoch = resetSchedule.getEpoch();
+    }
+    private static void writeLimitValues(DataOutput out, @Nullable Map<Currency, BigDecimal> values) throws IOException {
+        if (values == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(values.size());
+        for (Map.Entry<Currency, BigDecimal> e : values.entrySet()) {
+            out.writeUTF(e.getKey().getId());
+            out.writeUTF(e.getValue().toString());
+        }
+    }
+    /** @return the values for currencies that are still limited or null if there are none */
+    private static Map<Currency, BigDecimal> readLimitValues(DataInput in, Set<Currency> currencies, Function<Currency, BigDecimal> limits) throws IOException {
+        Map<Currency, BigDecimal> values = null;
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String currencyId = in.readUTF();
+            BigDecimal value = new BigDecimal(in.readUTF());
+            for (Currency currency : currencies) {
+                if (!currency.getId().equals(currencyId)) continue;
+                if (values == null) values = new HashMap<>(2);
+                values.put(currency, value.min(limits.apply(currency)).max(BigDecimal.ZERO));
             }
         }
-        result.itemBuyLimit = new BiBoundIntegerValue(
-                0,
-                node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT).isVirtual() ? null : node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT).getInt(),
-                0
-        );
-        result.itemSellLimit = new BiBoundIntegerValue(
-                0,
-                node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT).isVirtual() ? null : node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT).getInt(),
-                0
-        );
-        result.decayRate = node.getNode(ConfigKeys.KEY_IT_PRICEDECAY).getDouble();
-        result.growthRate = node.getNode(ConfigKeys.KEY_IT_PRICEINCREASE).getDouble();
-        result.halfLife = node.getNode(ConfigKeys.KEY_IT_HALFLIFE).getInt();
-        if (result.halfLife>0)
-            result.decayConstant = Math.log(2)/result.halfLife;
-        result.dispersionDevaluation = node.getNode(ConfigKeys.KEY_IT_DISPERSIONDEVALUATION).getDouble();
-
-        result.applicabilityFilter = filter;
-        result.filterName = filterName;
-        return result;
+        return values;
+    }
+
+    public static ItemTracker fromConfiguration(String filterName, ApplicabilityFilters<?> filter, ConfigurationNode node) throws ObjectMappingException {
+        return new ItemTracker(filterName, filter, TrackerConfiguration.fromConfiguration(node));
     }
 
     public void toConfiguration(CommentedConfigurationNode node) throws ObjectMappingException {
-        for (Map.Entry<Currency, BiBoundBigDecimalValue> e : incomeLimit.entrySet()) {
-            if (e.getValue().getMax()!=null)
-                node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT)
-                        .getNode(e.getKey().getId())
-                        .setValue(TypeToken.of(BigDecimal.class), e.getValue().getMax());
-        }
-        for (Map.Entry<Currency, BiBoundBigDecimalValue> e : spendingLimit.entrySet()) {
-            if (e.getValue().getMax()!=null)
-                node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT)
-                        .getNode(e.getKey().getId())
-                        .setValue(TypeToken.of(BigDecimal.class), e.getValue().getMax());
-        }
-        if (!node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).isVirtual())
-            node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).setComment("how much someone can earn during the reset period (delete entries to remove limits)");
-        if (!node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).isVirtual())
-            node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).setComment("how much someone can spend during the reset period (delete entries to remove limits)");
-        if (itemBuyLimit.getMax() != null)
-            node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT)
-                    .setValue(itemBuyLimit.getMax())
-                    .setComment("how many items someone can purchase during the reset period (delete for no limit)");
-        if (itemSellLimit.getMax() != null)
-            node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT)
-                    .setValue(itemSellLimit.getMax())
-                    .setComment("how many items someone can sell during the reset period (delete for no limit)");
-        node.getNode(ConfigKeys.KEY_IT_PRICEDECAY)
-                .setComment("The amount a price goes down for every single item sold.\n" +
-                        "This is a percentage value from 0 to 1, meaning\n" +
-                        "1 will reduce the price about 100% to 0 and\n" +
-                        "0 will not cause any change\n" +
-                        "(negative values are discouraged for economic stability)")
-                .setValue(decayRate);
-        node.getNode(ConfigKeys.KEY_IT_PRICEINCREASE)
-                .setComment("The amount a price goes up for every single item purchased.\n" +
-                        "This is a percentage from 0 to 1, meaning\n" +
-                        "1 will increase the price about 100% to 0 and\n" +
-                        "0 will not cause any change\n" +
-                        "(negative values are discouraged for economic stability)")
-                .setValue(growthRate);
-        node.getNode(ConfigKeys.KEY_IT_HALFLIFE)
-                .setValue(halfLife)
-                .setComment("the amount of time in minutes it takes for the price discapency (created by priceDecay and priceIncrease) to be reduced back to 50% (as a soft cooldown)");
-        node.getNode(ConfigKeys.KEY_IT_DISPERSIONDEVALUATION)
-                .setValue(dispersionDevaluation)
-                .setComment("this value is supposed to be multiplied onto a price whenever an item is sold to an admin shop, making re-selling really ineffective.\n"+
-                        "This is a percentage value from 0 to 1:\n"+
-                        "1 means the sell price does not change\n"+
-                        "0 means the player gets nothing for selling the item");
+        configuration.toConfiguration(node);
     }
 
     @Override
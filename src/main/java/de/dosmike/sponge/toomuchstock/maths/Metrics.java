@@ -0,0 +1,162 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import org.spongepowered.api.item.ItemType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the {@link PriceMetrics} for a price calculator. Recording only touches striped
+ * adders, so quotes on many threads don't contend on the counters.
+ */
+class Metrics implements PriceMetrics {
+
+    private final Histogram[] histograms = new Histogram[Operation.values().length];
+    /** quote counts by item type */
+    private final Map<ItemType, LongAdder> quotes = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder(), cacheMisses = new LongAdder();
+    private volatile Sample sample = new Sample(new int[3], new int[3], new int[3], new int[3]);
+
+    Metrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+    }
+
+    /** log2 bucketed durations. bucket i counts durations below 2^i ns */
+    private static class Histogram {
+        final LongAdder[] buckets = new LongAdder[64];
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets[Math.min(63, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+        long percentile(double fraction) {
+            long[] counts = new long[buckets.length];
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) sum += counts[i] = buckets[i].sum();
+            long target = (long) Math.ceil(sum * Math.max(0.0, Math.min(1.0, fraction)));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0)
+                    return i == 63 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+            return 0L;
+        }
+    }
+
+    /** tracker and manipulator counts per scope, indexed by scope ordinal */
+    private static class Sample {
+        final int[] trackers, derived, growth, resident;
+        Sample(int[] trackers, int[] derived, int[] growth, int[] resident) {
+            this.trackers = trackers;
+            this.derived = derived;
+            this.growth = growth;
+            this.resident = resident;
+        }
+    }
+
+    /** @return the start time to pass into {@link #record} */
+    static long start() {
+        return System.nanoTime();
+    }
+    void record(Operation operation, long start) {
+        histograms[operation.ordinal()].record(System.nanoTime() - start);
+    }
+    void quoted(ItemType type) {
+        quotes.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+    void cached(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /** publish new tracker counts. called by the think tick */
+    void sample(PriceManipulator global, Collection<PriceManipulator> shops, Collection<PriceManipulator> players) {
+        List<Collection<PriceManipulator>> manipulators = Arrays.asList(Collections.singleton(global), shops, players);
+        Sample previous = sample;
+        int[] trackers = new int[3], derived = new int[3], growth = new int[3], resident = new int[3];
+        for (int i = 0; i < 3; i++) {
+            for (PriceManipulator manipulator : manipulators.get(i)) {
+                trackers[i] += manipulator.getTrackerCount();
+                derived[i] += manipulator.getDerivedTrackerCount();
+            }
+            resident[i] = manipulators.get(i).size();
+            growth[i] = derived[i] - previous.derived[i];
+        }
+        sample = new Sample(trackers, derived, growth, resident);
+    }
+
+    @Override
+    public long getCount(Operation operation) {
+        return histograms[operation.ordinal()].count.sum();
+    }
+
+    @Override
+    public double getMeanNanos(Operation operation) {
+        Histogram histogram = histograms[operation.ordinal()];
+        long count = histogram.count.sum();
+        return count == 0 ? 0.0 : (double) histogram.total.sum() / count;
+    }
+
+    @Override
+    public long getMaxNanos(Operation operation) {
+        return histograms[operation.ordinal()].max.get();
+    }
+
+    @Override
+    public long getPercentileNanos(Operation operation, double fraction) {
+        return histograms[operation.ordinal()].percentile(fraction);
+    }
+
+    @Override
+    public int getTrackerCount(Scope scope) {
+        return sample.trackers[scope.ordinal()];
+    }
+
+    @Override
+    public int getDerivedTrackerCount(Scope scope) {
+        return sample.derived[scope.ordinal()];
+    }
+
+    @Override
+    public int getDerivedTrackerGrowth(Scope scope) {
+        return sample.growth[scope.ordinal()];
+    }
+
+    @Override
+    public int getResidentManipulators(Scope scope) {
+        return sample.resident[scope.ordinal()];
+    }
+
+    @Override
+    public long getQuoteCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getQuoteCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public List<Map.Entry<String, Long>> getHotItems(int limit) {
+        return quotes.entrySet().stream()
+                .map(e -> new AbstractMap.SimpleImmutableEntry<>(e.getKey().getId(), e.getValue().sum()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+}
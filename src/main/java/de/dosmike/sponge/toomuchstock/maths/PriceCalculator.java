@@ -3,57 +3,108 @@ package de.dosmike.sponge.toomuchstock.maths;
 import com.google.common.collect.ImmutableList;
 import com.google.common.reflect.TypeToken;
 import de.dosmike.sponge.toomuchstock.ConfigKeys;
-import de.dosmike.sponge.toomuchstock.TooMuchStock;
 import de.dosmike.sponge.toomuchstock.service.PriceCalculationService;
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import de.dosmike.sponge.toomuchstock.service.PriceQuery;
+import de.dosmike.sponge.toomuchstock.service.PriceQuote;
+import de.dosmike.sponge.toomuchstock.service.PriceSubscription;
+import de.dosmike.sponge.toomuchstock.service.PricingHandle;
 import de.dosmike.sponge.toomuchstock.service.TransactionPreview;
 import de.dosmike.sponge.toomuchstock.utils.DecayUtil;
 import de.dosmike.sponge.toomuchstock.utils.VMath;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
-import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import org.jetbrains.annotations.Nullable;
-import org.spongepowered.api.Sponge;
+import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.service.economy.Currency;
-import org.spongepowered.api.service.economy.account.UniqueAccount;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class is not suitable as service implementation as it gets
  * rebuilt with every config reload - unless i'd change service every time
  * the config reloads, but I like services being provided just once (also
- * good in case other plugins make assumptions)
+ * good in case other plugins make assumptions)<br>
+ * Quotes and confirmations can happen on any thread, ticks, merges and state
+ * persistence are expected to run on the main thread.
  */
 public class PriceCalculator implements PriceCalculationService {
 
     private PriceManipulator globalManip;
-    private Map<UUID, PriceManipulator> shopManips = new HashMap<>();
-    private Map<UUID, PriceManipulator> playerManips = new HashMap<>();
+    private Map<UUID, PriceManipulator> shopManips = new ConcurrentHashMap<>();
+    private Map<UUID, PriceManipulator> playerManips = new ConcurrentHashMap<>();
 
     private PriceManipulator shopBase;
     private PriceManipulator playerBase;
 
-    private PriceCalculator(PriceManipulator baseGlobalManip, PriceManipulator baseShopManip, PriceManipulator basePlayerManip) {
+    private final Metrics metrics = new Metrics();
+    /** current prices by the trackers and tracker versions they were computed from */
+    private final QuoteCache quoteCache = new QuoteCache(4096);
+    private final PricingEnvironment environment;
+    /** trackers that changed prices since the last {@link #flushPriceChanges()} */
+    private final Set<PriceUpdateEvent.Change> pendingChanges = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<ItemStackSnapshot> lastTraded = new AtomicReference<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    /** set once this calculator was replaced, invalidating all handles */
+    private volatile boolean retired = false;
+    /**
+     * Soft reloads replace the configuration of every tracker one by one. They hold the write lock,
+     * so quotes can validate they did not mix rates from before and after a reload. Quotes read
+     * optimistically and only lock if a reload got in between, confirmations always read lock.
+     */
+    private final StampedLock configLock = new StampedLock();
+
+    private PriceCalculator(PricingEnvironment environment, PriceManipulator baseGlobalManip, PriceManipulator baseShopManip, PriceManipulator basePlayerManip) {
+        this.environment = environment;
         this.globalManip = baseGlobalManip;
         this.shopBase = baseShopManip;
         this.playerBase = basePlayerManip;
+        // schedule the next resets right away, so players paged in before the first
+        // think tick can tell whether a reset passed since they left
+        globalManip.getResetSchedule().think();
+        shopBase.getResetSchedule().think();
+        playerBase.getResetSchedule().think();
     }
 
+    /** applies a soft reload to all manipulators, quotes and confirmations see it as a whole */
     public void mergeManipulators(PriceManipulator baseGlobalUpdate, PriceManipulator baseShopUpdate, PriceManipulator basePlayerUpdate) {
-        globalManip.merge(baseGlobalUpdate);
-        shopBase.merge(baseShopUpdate);
-        shopManips.values().forEach(manip->manip.merge(baseShopUpdate));
-        playerBase.merge(basePlayerUpdate);
-        playerManips.values().forEach(manip->manip.merge(basePlayerUpdate));
+        long stamp = configLock.writeLock();
+        try {
+            globalManip.merge(baseGlobalUpdate);
+            // the diff is computed once per base and only touches the trackers a clone actually has
+            PriceManipulator.TemplateUpdate shopUpdate = shopBase.merge(baseShopUpdate);
+            shopManips.values().forEach(manip->manip.apply(shopUpdate));
+            PriceManipulator.TemplateUpdate playerUpdate = playerBase.merge(basePlayerUpdate);
+            playerManips.values().forEach(manip->manip.apply(playerUpdate));
+        } finally {
+            configLock.unlockWrite(stamp);
+        }
+        // rates might have changed for any item
+        subscriptions.forEach(Subscription::invalidate);
+    }
+
+    /**
+     * Take over the subscriptions of the calculator this one replaces. Their prices are checked
+     * again with the next flush, as the configuration might have changed.
+     */
+    public void adoptSubscriptions(PriceCalculator previous) {
+        for (Subscription subscription : previous.subscriptions) {
+            subscription.invalidate();
+            subscriptions.add(subscription);
+        }
+        previous.subscriptions.clear();
     }
 
     //Region builder
@@ -61,7 +112,12 @@ public class PriceCalculator implements PriceCalculationService {
         PriceManipulator manipulatorTemplateGlobal = null;
         PriceManipulator manipulatorTemplateShops = null;
         PriceManipulator manipulatorTemplatePlayer = null;
+        PricingEnvironment environment = null;
         private Builder() {}
+        public Builder setEnvironment(PricingEnvironment environment) {
+            this.environment = environment;
+            return Builder.this;
+        }
         public Builder setGlobalManipulatorTemplate(PriceManipulator manipulator) {
             manipulatorTemplateGlobal = manipulator;
             return Builder.this;
@@ -79,7 +135,9 @@ public class PriceCalculator implements PriceCalculationService {
                 manipulatorTemplateShops == null ||
                 manipulatorTemplatePlayer == null)
                 throw new IllegalStateException("Not all manipulators were set");
-            return new PriceCalculator(manipulatorTemplateGlobal, manipulatorTemplateShops, manipulatorTemplatePlayer);
+            if (environment == null)
+                throw new IllegalStateException("No environment was set");
+            return new PriceCalculator(environment, manipulatorTemplateGlobal, manipulatorTemplateShops, manipulatorTemplatePlayer);
         }
     }
     public static Builder builder() {
@@ -89,19 +147,158 @@ public class PriceCalculator implements PriceCalculationService {
 
     //expected to be called once a minute
     public void thinkTick() {
+        long start = Metrics.start();
+        metrics.sample(globalManip, shopManips.values(), playerManips.values());
         Set<UUID> staleShopManips = new HashSet<>();
-        Set<UUID> stalePlayerManips = new HashSet<>();
-        globalManip.think();
+        Set<UUID> offlinePlayers = new HashSet<>();
+        globalManip.think(tracker -> changed(PriceMetrics.Scope.GLOBAL, null, tracker));
         for (Map.Entry<UUID, PriceManipulator> e : shopManips.entrySet()) {
-            e.getValue().think();
-            if (e.getValue().isIdle()) staleShopManips.add(e.getKey());
+            e.getValue().think(tracker -> changed(PriceMetrics.Scope.SHOPS, e.getKey(), tracker));
+            if (isStale(e.getValue())) staleShopManips.add(e.getKey());
         }
         for (Map.Entry<UUID, PriceManipulator> e : playerManips.entrySet()) {
-            e.getValue().think();
-            if (e.getValue().isIdle()) stalePlayerManips.add(e.getKey());
+            e.getValue().think(tracker -> changed(PriceMetrics.Scope.PLAYERS, e.getKey(), tracker));
+            // players are paged in on join and out on disconnect, but plugins might price items for offline players
+            if (e.getValue().getMinutesUntouched() > 0 &&
+                    !environment.isOnline(e.getKey()))
+                offlinePlayers.add(e.getKey());
+        }
+        // quotes on other threads might have picked up the manipulator since it was checked
+        for (UUID id : staleShopManips) shopManips.computeIfPresent(id, (k, manip) -> {
+            if (!isStale(manip)) return manip;
+            manip.retire();
+            return null;
+        });
+        for (UUID id : offlinePlayers) unloadPlayerState(id);
+        metrics.record(PriceMetrics.Operation.THINK_TICK, start);
+    }
+    private static boolean isStale(PriceManipulator manipulator) {
+        return manipulator.isIdle() && manipulator.getMinutesUntouched() > 0;
+    }
+
+    private void changed(PriceMetrics.Scope scope, @Nullable UUID owner, ItemTracker tracker) {
+        pendingChanges.add(new PriceUpdateEvent.Change(scope, owner, tracker));
+    }
+    /** queue the trackers of a confirmed trade for the next price update */
+    private void traded(Result result) {
+        // the trade is reported now, the next think tick only has to report later decay
+        result.global.pollChanged();
+        changed(PriceMetrics.Scope.GLOBAL, null, result.global);
+        if (result.shop != null) {
+            result.shop.pollChanged();
+            changed(PriceMetrics.Scope.SHOPS, result.shopID, result.shop);
+        }
+        if (result.player != null) {
+            result.player.pollChanged();
+            changed(PriceMetrics.Scope.PLAYERS, result.playerID, result.player);
+        }
+        lastTraded.set(result.item);
+    }
+    /**
+     * Publishes all price changes from trades, decay and resets since the last call as one batch
+     * and pushes new prices to subscriptions that are due.
+     * Supposed to be called on the main thread once per update interval.
+     */
+    public void flushPriceChanges() {
+        if (!pendingChanges.isEmpty()) {
+            Set<PriceUpdateEvent.Change> changes = new HashSet<>();
+            Iterator<PriceUpdateEvent.Change> iterator = pendingChanges.iterator();
+            while (iterator.hasNext()) {
+                changes.add(iterator.next());
+                iterator.remove();
+            }
+            for (Subscription subscription : subscriptions)
+                for (PriceUpdateEvent.Change change : changes)
+                    subscription.changed(change);
+            environment.pricesChanged(changes, lastTraded.getAndSet(null));
+        }
+        updateSubscriptions();
+    }
+    private void updateSubscriptions() {
+        if (subscriptions.isEmpty()) return;
+        subscriptions.removeIf(subscription -> !subscription.isActive());
+        long now = Clock.currentTimeMillis();
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.isDue(now)) continue;
+            try {
+                subscription.update(getCurrentPrices(subscription.getQueries(), subscription.getShopID(), subscription.getPlayerID()), now);
+            } catch (RuntimeException e) {
+                environment.warn("A price subscription failed: " + e.getMessage());
+            }
         }
-        for (UUID id : staleShopManips) shopManips.remove(id);
-        for (UUID id : stalePlayerManips) playerManips.remove(id);
+    }
+
+    /**
+     * The initial prices are computed on the calling thread, updates are pushed by {@link #flushPriceChanges()}.
+     * @see Subscription
+     */
+    @Override
+    public PriceSubscription subscribe(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID, long minInterval, TimeUnit unit, double threshold, PriceSubscription.Listener listener) {
+        if (minInterval < 0) throw new IllegalArgumentException("The minimum interval can't be negative");
+        if (threshold < 0) throw new IllegalArgumentException("The threshold can't be negative");
+        Subscription subscription = new Subscription(queries, shopID, playerID, unit.toMillis(minInterval), threshold, listener,
+                getCurrentPrices(queries, shopID, playerID));
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /** writes reset schedules and the state for the global and shop manipulators, see {@link StateStore}.
+     * player manipulators are stored separately by {@link StateStore#pageOut} */
+    void writeState(DataOutput out) throws IOException {
+        out.writeLong(globalManip.getResetSchedule().getNextResetTime());
+        out.writeLong(shopBase.getResetSchedule().getNextResetTime());
+        out.writeLong(playerBase.getResetSchedule().getNextResetTime());
+        globalManip.writeState(out);
+        writeManipulators(out, shopManips);
+    }
+    private static void writeManipulators(DataOutput out, Map<UUID, PriceManipulator> manipulators) throws IOException {
+        out.writeInt(manipulators.size());
+        for (Map.Entry<UUID, PriceManipulator> e : manipulators.entrySet()) {
+            writeUUID(out, e.getKey());
+            e.getValue().writeState(out);
+        }
+    }
+    /** reads the state written by {@link #writeState} and catches up on the time since savedAt */
+    void readState(DataInput in, long savedAt) throws IOException {
+        globalManip.getResetSchedule().restore(in.readLong());
+        shopBase.getResetSchedule().restore(in.readLong());
+        playerBase.getResetSchedule().restore(in.readLong());
+        Map<String, Optional<ItemType>> itemTypes = new HashMap<>();
+        globalManip.readState(in, itemTypes, savedAt);
+        readManipulators(in, shopManips, shopBase, itemTypes, savedAt);
+    }
+    private static void readManipulators(DataInput in, Map<UUID, PriceManipulator> manipulators, PriceManipulator base, Map<String, Optional<ItemType>> itemTypes, long savedAt) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UUID id = readUUID(in);
+            PriceManipulator manipulator = base.clone();
+            manipulator.readState(in, itemTypes, savedAt);
+            if (id != null && !manipulator.isIdle())
+                manipulators.put(id, manipulator);
+        }
+    }
+    static void writeUUID(DataOutput out, @Nullable UUID id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id == null) return;
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+    static UUID readUUID(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /** @return the shops tracker for the item, or null if the quote is not for a shop */
+    @Nullable
+    private ItemTracker getShopTrackerFor(@Nullable UUID shopID, ItemStackSnapshot item) {
+        if (shopID == null) return null;
+        return shopManips.computeIfAbsent(shopID, (id)->shopBase.clone()).getTrackerFor(item);
+    }
+    /** @return the players tracker for the item, or null if the quote is not for a player */
+    @Nullable
+    private ItemTracker getPlayerTrackerFor(@Nullable UUID playerID, ItemStackSnapshot item) {
+        if (playerID == null) return null;
+        return getPlayerManipulator(playerID).getTrackerFor(item);
     }
 
     public void dumpBaseConfiguration(CommentedConfigurationNode parent) throws ObjectMappingException {
@@ -110,13 +307,28 @@ public class PriceCalculator implements PriceCalculationService {
         playerBase.toConfiguration(parent, ConfigKeys.KEY_PLAYERS);
     }
 
+    /**
+     * Called when this calculator is replaced by a hard reload. Handles obtained from this
+     * calculator become invalid and results from it can no longer be confirmed.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    @Override
+    public PriceMetrics getMetrics() {
+        return metrics;
+    }
+
     public Optional<ItemTracker> getGlobalTracker(ItemStackSnapshot item) {
         return globalManip.getIfCurrentlyTracked(item);
     }
     public Optional<ItemTracker> getShopTracker(UUID shop, ItemStackSnapshot item) {
+        if (shop == null) return Optional.empty();
         return Optional.ofNullable(shopManips.get(shop)).flatMap(manip->manip.getIfCurrentlyTracked(item));
     }
     public Optional<ItemTracker> getPlayerTracker(UUID player, ItemStackSnapshot item) {
+        if (player == null) return Optional.empty();
         return Optional.ofNullable(playerManips.get(player)).flatMap(manip->manip.getIfCurrentlyTracked(item));
     }
 
@@ -124,25 +336,48 @@ public class PriceCalculator implements PriceCalculationService {
         return getPurchaseInformation(item.createSnapshot(), amount, staticPrice, currency, shopID, playerID);
     }
     public Result getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return getPurchaseInformation(item, amount, staticPrice, currency, shopID, playerID, false);
+    }
+    public Result getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy) {
+        return getPurchaseInformation(item, amount, staticPrice, currency, shopID, playerID, getAccountBalance(playerID, currency), lazy);
+    }
+    /** @param playerBalance the balance supplied by the caller, so the economy is not asked. null to not limit by balance */
+    public Result getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal playerBalance, boolean lazy) {
+        long start = Metrics.start();
         ItemTracker global = globalManip.getTrackerFor(item);
-        ItemTracker shop = shopManips.computeIfAbsent(shopID, (id)->shopBase.clone())
-                .getTrackerFor(item); //or null
-        ItemTracker player = playerManips.computeIfAbsent(playerID, (id)->playerBase.clone())
-                .getTrackerFor(item); //or null
+        ItemTracker shop = getShopTrackerFor(shopID, item); //or null
+        ItemTracker player = getPlayerTrackerFor(playerID, item); //or null
 
-        return new Result(global, shop, player, item, amount, true, staticPrice, currency, getAccountBalance(playerID, currency));
+        return information(start, global, shop, player, item, amount, true, staticPrice, currency, shopID, playerID, playerBalance, lazy);
     }
     public Result getSellingInformation(ItemStack item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID) {
         return getSellingInformation(item.createSnapshot(), amount, staticPrice, currency, shopID, playerID);
     }
     public Result getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return getSellingInformation(item, amount, staticPrice, currency, shopID, playerID, false);
+    }
+    public Result getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy) {
+        return getSellingInformation(item, amount, staticPrice, currency, shopID, playerID, getAccountCapacity(playerID, currency), lazy);
+    }
+    /** @param accountCapacity the remaining account capacity supplied by the caller, so the economy is not asked. null if not capped */
+    public Result getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal accountCapacity, boolean lazy) {
+        long start = Metrics.start();
         ItemTracker global = globalManip.getTrackerFor(item);
-        ItemTracker shop = shopManips.computeIfAbsent(shopID, (id)->shopBase.clone())
-                .getTrackerFor(item); //or null
-        ItemTracker player = playerManips.computeIfAbsent(playerID, (id)->playerBase.clone())
-                .getTrackerFor(item); //or null
+        ItemTracker shop = getShopTrackerFor(shopID, item); //or null
+        ItemTracker player = getPlayerTrackerFor(playerID, item); //or null
 
-        return new Result(global, shop, player, item, amount, false, staticPrice, currency, getAccountCapacity(playerID, currency));
+        return information(start, global, shop, player, item, amount, false, staticPrice, currency, shopID, playerID, accountCapacity, lazy);
+    }
+    private Result information(long start, ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, ItemStackSnapshot item, int amount, boolean purchase, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal playerBalance, boolean lazy) {
+        long stamp = configLock.tryOptimisticRead();
+        Result result = new Result(global, shop, player, item, amount, purchase, staticPrice, currency, playerBalance, lazy);
+        result.origin = this;
+        result.shopID = shopID;
+        result.playerID = playerID;
+        if (!configLock.validate(stamp)) result.update(); // a soft reload got in between
+        metrics.quoted(item.getType());
+        metrics.record(PriceMetrics.Operation.INFORMATION, start);
+        return result;
     }
     /**
      * this is for display only as it's less stress to compute. For the actual sell/purchase procedure,
@@ -159,22 +394,12 @@ public class PriceCalculator implements PriceCalculationService {
      */
     public BigDecimal getCurrentPurchasePrice(ItemStackSnapshot item, int amount, BigDecimal staticPrice, @Nullable UUID shopID, @Nullable UUID playerID) {
         if (amount == 0) return BigDecimal.ZERO;
+        long start = Metrics.start();
         ItemTracker global = globalManip.getTrackerFor(item);
-        ItemTracker shop = shopManips.computeIfAbsent(shopID, (id)->shopBase.clone())
-                .getTrackerFor(item); //or null
-        ItemTracker player = playerManips.computeIfAbsent(playerID, (id)->playerBase.clone())
-                .getTrackerFor(item); //or null
+        ItemTracker shop = getShopTrackerFor(shopID, item); //or null
+        ItemTracker player = getPlayerTrackerFor(playerID, item); //or null
 
-        // We want the scale FOR amount items, not AFTER amount items, so subtract 1
-        List<Double> mods = DecayUtil.createGrowthMultiplicationVector(global.peek(), global.getGrowthRate(), amount-1);
-        if (shop != null) {
-            mods = multiply(mods, DecayUtil.createGrowthMultiplicationVector(shop.peek(), shop.getGrowthRate(), amount-1));
-        }
-        if (player != null) {
-            mods = multiply(mods, DecayUtil.createGrowthMultiplicationVector(player.peek(), player.getGrowthRate(), amount-1));
-        }
-        double scale = mods.stream().reduce(Double::sum).get();
-        return BigDecimal.valueOf(scale).multiply(staticPrice);
+        return currentPrice(start, global, shop, player, item, amount, true, staticPrice);
     }
     /**
      * this is for display only as it's less stress to compute. For the actual sell/purchase procedure,
@@ -191,24 +416,257 @@ public class PriceCalculator implements PriceCalculationService {
      */
     public BigDecimal getCurrentSellingPrice(ItemStackSnapshot item, int amount, BigDecimal staticPrice, @Nullable UUID shopID, @Nullable UUID playerID) {
         if (amount == 0) return BigDecimal.ZERO;
+        long start = Metrics.start();
         ItemTracker global = globalManip.getTrackerFor(item);
-        ItemTracker shop = shopManips.computeIfAbsent(shopID, (id)->shopBase.clone())
-                .getTrackerFor(item); //or null
-        ItemTracker player = playerManips.computeIfAbsent(playerID, (id)->playerBase.clone())
-                .getTrackerFor(item); //or null
+        ItemTracker shop = getShopTrackerFor(shopID, item); //or null
+        ItemTracker player = getPlayerTrackerFor(playerID, item); //or null
 
-        // We want the scale FOR amount items, not AFTER amount items, so subtract 1
-        List<Double> mods = DecayUtil.createDecayMultiplicationVector(global.peek(), global.getDecayRate(), amount-1);
+        return currentPrice(start, global, shop, player, item, amount, false, staticPrice);
+    }
+    private BigDecimal currentPrice(long start, ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, ItemStackSnapshot item, int amount, boolean purchase, BigDecimal staticPrice) {
+        QuoteCache.Key key = new QuoteCache.Key(global, shop, player, amount, staticPrice, purchase);
+        BigDecimal price = quoteCache.get(key);
+        metrics.cached(price != null);
+        if (price == null) {
+            // prices computed across a soft reload never hit the cache, the reload bumped the versions
+            long stamp = configLock.tryOptimisticRead();
+            price = computePrice(global, shop, player, amount, purchase, staticPrice);
+            if (!configLock.validate(stamp)) {
+                stamp = configLock.readLock();
+                try {
+                    price = computePrice(global, shop, player, amount, purchase, staticPrice);
+                } finally {
+                    configLock.unlockRead(stamp);
+                }
+            }
+            quoteCache.put(key, price);
+        }
+        metrics.quoted(item.getType());
+        metrics.record(PriceMetrics.Operation.CURRENT_PRICE, start);
+        return price;
+    }
+    private static BigDecimal computePrice(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, int amount, boolean purchase, BigDecimal staticPrice) {
+        // The multipliers per tracker are geometric sequences, so is their product
+        double first = global.peek();
+        double ratio = purchase ? DecayUtil.growthRatio(global.getGrowthRate()) : DecayUtil.decayRatio(global.getDecayRate());
         if (shop != null) {
-            mods = multiply(mods, DecayUtil.createDecayMultiplicationVector(shop.peek(), shop.getDecayRate(), amount-1));
+            first *= shop.peek();
+            ratio *= purchase ? DecayUtil.growthRatio(shop.getGrowthRate()) : DecayUtil.decayRatio(shop.getDecayRate());
         }
         if (player != null) {
-            mods = multiply(mods, DecayUtil.createDecayMultiplicationVector(player.peek(), player.getDecayRate(), amount-1));
+            first *= player.peek();
+            ratio *= purchase ? DecayUtil.growthRatio(player.getGrowthRate()) : DecayUtil.decayRatio(player.getDecayRate());
         }
-        double scale = mods.stream().reduce(Double::sum).get();
+        double scale = DecayUtil.geometricSum(first, ratio, amount);
         return BigDecimal.valueOf(scale).multiply(staticPrice);
     }
 
+    /**
+     * The shop and player manipulators are resolved once for the whole batch and every tracker is
+     * only read once for both prices. This is for display only, see {@link #getCurrentPurchasePrice}.
+     */
+    public List<PriceQuote> getCurrentPrices(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID) {
+        long start = Metrics.start();
+        PriceManipulator shopManip = shopID == null ? null : shopManips.computeIfAbsent(shopID, (id)->shopBase.clone());
+        PriceManipulator playerManip = playerID == null ? null : getPlayerManipulator(playerID);
+        List<PriceQuote> quotes = new ArrayList<>(queries.size());
+        for (PriceQuery query : queries) {
+            int amount = query.getAmount();
+            if (amount == 0) {
+                quotes.add(new PriceQuote(query, BigDecimal.ZERO, BigDecimal.ZERO));
+                continue;
+            }
+            ItemStackSnapshot item = query.getItem();
+            ItemTracker global = globalManip.getTrackerFor(item);
+            ItemTracker shop = shopManip == null ? null : shopManip.getTrackerFor(item);
+            ItemTracker player = playerManip == null ? null : playerManip.getTrackerFor(item);
+
+            QuoteCache.Key purchaseKey = new QuoteCache.Key(global, shop, player, amount, query.getStaticPrice(), true);
+            QuoteCache.Key sellingKey = purchaseKey.opposite();
+            BigDecimal purchasePrice = quoteCache.get(purchaseKey);
+            BigDecimal sellingPrice = quoteCache.get(sellingKey);
+            metrics.cached(purchasePrice != null && sellingPrice != null);
+            metrics.quoted(item.getType());
+            if (purchasePrice != null && sellingPrice != null) {
+                quotes.add(new PriceQuote(query, purchasePrice, sellingPrice));
+                continue;
+            }
+
+            long stamp = configLock.tryOptimisticRead();
+            PriceQuote quote = computeQuote(query, global, shop, player);
+            if (!configLock.validate(stamp)) {
+                stamp = configLock.readLock();
+                try {
+                    quote = computeQuote(query, global, shop, player);
+                } finally {
+                    configLock.unlockRead(stamp);
+                }
+            }
+            quoteCache.put(purchaseKey, quote.getPurchasePrice());
+            quoteCache.put(sellingKey, quote.getSellingPrice());
+            quotes.add(quote);
+        }
+        metrics.record(PriceMetrics.Operation.BATCH_PRICES, start);
+        return quotes;
+    }
+
+    private static PriceQuote computeQuote(PriceQuery query, ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player) {
+        // same fused geometric sequences as for the single item prices
+        double first = global.peek();
+        double growth = DecayUtil.growthRatio(global.getGrowthRate());
+        double decay = DecayUtil.decayRatio(global.getDecayRate());
+        if (shop != null) {
+            first *= shop.peek();
+            growth *= DecayUtil.growthRatio(shop.getGrowthRate());
+            decay *= DecayUtil.decayRatio(shop.getDecayRate());
+        }
+        if (player != null) {
+            first *= player.peek();
+            growth *= DecayUtil.growthRatio(player.getGrowthRate());
+            decay *= DecayUtil.decayRatio(player.getDecayRate());
+        }
+        int amount = query.getAmount();
+        BigDecimal purchasePrice = BigDecimal.valueOf(DecayUtil.geometricSum(first, growth, amount)).multiply(query.getStaticPrice());
+        BigDecimal sellingPrice = BigDecimal.valueOf(DecayUtil.geometricSum(first, decay, amount)).multiply(query.getStaticPrice());
+        return new PriceQuote(query, purchasePrice, sellingPrice);
+    }
+
+    /**
+     * Resolve the trackers for the item, shop and player once, for repeated quotes on the same listing.
+     * @see Handle
+     */
+    @Override
+    public Handle getPricingHandle(ItemStackSnapshot item, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return new Handle(this, item, shopID, playerID);
+    }
+    @Override
+    public Handle getPricingHandle(ItemStack item, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return getPricingHandle(item.createSnapshot(), shopID, playerID);
+    }
+
+    /** the trackers for a handle, with the manipulators they came from */
+    private static class Pinned {
+        final ItemTracker global;
+        @Nullable final ItemTracker shop, player;
+        @Nullable final PriceManipulator shopManip, playerManip;
+        Pinned(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, @Nullable PriceManipulator shopManip, @Nullable PriceManipulator playerManip) {
+            this.global = global;
+            this.shop = shop;
+            this.player = player;
+            this.shopManip = shopManip;
+            this.playerManip = playerManip;
+        }
+        boolean isRetired() {
+            return global.isRetired() || (shop != null && shop.isRetired()) || (player != null && player.isRetired());
+        }
+    }
+    private Pinned pin(ItemStackSnapshot item, @Nullable UUID shopID, @Nullable UUID playerID) {
+        PriceManipulator shopManip = shopID == null ? null : shopManips.computeIfAbsent(shopID, (id)->shopBase.clone());
+        PriceManipulator playerManip = playerID == null ? null : getPlayerManipulator(playerID);
+        return new Pinned(globalManip.getTrackerFor(item),
+                shopManip == null ? null : shopManip.getTrackerFor(item),
+                playerManip == null ? null : playerManip.getTrackerFor(item),
+                shopManip, playerManip);
+    }
+    /** look up the trackers for a result again, after some were retired */
+    private void resolve(Result result) {
+        if (retired)
+            throw new IllegalStateException("The price calculator was replaced, please request a new result");
+        result.global = globalManip.getTrackerFor(result.item);
+        result.shop = getShopTrackerFor(result.shopID, result.item);
+        result.player = getPlayerTrackerFor(result.playerID, result.item);
+    }
+    /** mark the pinned trackers as used, as a lookup would */
+    private void touch(Pinned pinned) {
+        globalManip.touch(pinned.global);
+        if (pinned.shopManip != null) pinned.shopManip.touch(pinned.shop);
+        if (pinned.playerManip != null) pinned.playerManip.touch(pinned.player);
+    }
+
+    /**
+     * Holds on to the trackers for an item, shop and player, so repeated quotes skip the lookups.
+     * Trackers that are dropped by their manipulator (eviction, reloads, players leaving) are
+     * retired, in which case the handle looks them up again on the next use. Once the calculator
+     * is replaced by a hard reload, the handle is no longer valid.
+     */
+    public static class Handle implements PricingHandle {
+        private final PriceCalculator calculator;
+        private final ItemStackSnapshot item;
+        @Nullable private final UUID shopID, playerID;
+        private volatile Pinned pinned;
+
+        private Handle(PriceCalculator calculator, ItemStackSnapshot item, @Nullable UUID shopID, @Nullable UUID playerID) {
+            this.calculator = calculator;
+            this.item = item;
+            this.shopID = shopID;
+            this.playerID = playerID;
+            this.pinned = calculator.pin(item, shopID, playerID);
+        }
+
+        private Pinned pinned() {
+            if (calculator.retired)
+                throw new IllegalStateException("The price calculator was replaced, please request a new handle");
+            Pinned pinned = this.pinned;
+            if (pinned.isRetired()) {
+                this.pinned = pinned = calculator.pin(item, shopID, playerID);
+            } else {
+                calculator.touch(pinned);
+            }
+            return pinned;
+        }
+
+        @Override
+        public ItemStackSnapshot getItem() {
+            return item;
+        }
+        @Override
+        public Optional<UUID> getShopID() {
+            return Optional.ofNullable(shopID);
+        }
+        @Override
+        public Optional<UUID> getPlayerID() {
+            return Optional.ofNullable(playerID);
+        }
+        @Override
+        public boolean isValid() {
+            return !calculator.retired;
+        }
+
+        @Override
+        public BigDecimal getCurrentPurchasePrice(int amount, BigDecimal staticPrice) {
+            if (amount == 0) return BigDecimal.ZERO;
+            long start = Metrics.start();
+            Pinned pinned = pinned();
+            return calculator.currentPrice(start, pinned.global, pinned.shop, pinned.player, item, amount, true, staticPrice);
+        }
+        @Override
+        public BigDecimal getCurrentSellingPrice(int amount, BigDecimal staticPrice) {
+            if (amount == 0) return BigDecimal.ZERO;
+            long start = Metrics.start();
+            Pinned pinned = pinned();
+            return calculator.currentPrice(start, pinned.global, pinned.shop, pinned.player, item, amount, false, staticPrice);
+        }
+        @Override
+        public Result getPurchaseInformation(int amount, BigDecimal staticPrice, Currency currency, boolean lazy) {
+            return getPurchaseInformation(amount, staticPrice, currency, calculator.getAccountBalance(playerID, currency), lazy);
+        }
+        @Override
+        public Result getPurchaseInformation(int amount, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal playerBalance, boolean lazy) {
+            long start = Metrics.start();
+            Pinned pinned = pinned();
+            return calculator.information(start, pinned.global, pinned.shop, pinned.player, item, amount, true, staticPrice, currency, shopID, playerID, playerBalance, lazy);
+        }
+        @Override
+        public Result getSellingInformation(int amount, BigDecimal staticPrice, Currency currency, boolean lazy) {
+            return getSellingInformation(amount, staticPrice, currency, calculator.getAccountCapacity(playerID, currency), lazy);
+        }
+        @Override
+        public Result getSellingInformation(int amount, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal accountCapacity, boolean lazy) {
+            long start = Metrics.start();
+            Pinned pinned = pinned();
+            return calculator.information(start, pinned.global, pinned.shop, pinned.player, item, amount, false, staticPrice, currency, shopID, playerID, accountCapacity, lazy);
+        }
+    }
 
     public static class Result implements TransactionPreview {
         ItemTracker global;
@@ -220,15 +678,40 @@ public class PriceCalculator implements PriceCalculationService {
         BigDecimal staticPrice;
         BigDecimal playerBalance;
         Currency currency;
-        /** the value of &lt;index&gt; items */
-        List<BigDecimal> nItemValue;
+        /**
+         * the multiplier for the value of &lt;index&gt; items. This buffer is kept
+         * for subsequent calls to {@link #update()} and only grows if required.
+         */
+        double[] nItemMultiplier;
+        /**
+         * lazy results do not fill {@link #nItemMultiplier} but compute values on request
+         * from the fused initial multiplier and ratio
+         */
+        boolean lazy;
+        double firstMultiplier, ratio;
         int canAfford; //check the player balance, shop eco limits and shop amount limits
         int limitAccount, limitCurrency, limitItems;
+        /**
+         * the calculator that created this result, to record metrics and notify about price changes.
+         * null for results created elsewhere
+         */
+        @Nullable PriceCalculator origin;
+        /** the shop and player the trackers belong to, for price change events */
+        @Nullable UUID shopID, playerID;
         /**
          * @param purchase if the player purchases items -> price will grow
          * @param playerBalance if selling this value should be the remaining capacity in the players account or NULL
          */
         public Result(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, ItemStackSnapshot item, int amount, boolean purchase, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal playerBalance) {
+            this(global, shop, player, item, amount, purchase, staticPrice, currency, playerBalance, false);
+        }
+        /**
+         * @param purchase if the player purchases items -> price will grow
+         * @param playerBalance if selling this value should be the remaining capacity in the players account or NULL
+         * @param lazy if true, values are only computed when requested instead of for every amount up front
+         */
+        public Result(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, ItemStackSnapshot item, int amount, boolean purchase, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal playerBalance, boolean lazy) {
+            this.lazy = lazy;
             this.global = global;
             this.shop = shop;
             this.player = player;
@@ -238,41 +721,56 @@ public class PriceCalculator implements PriceCalculationService {
             this.staticPrice = staticPrice;
             this.currency = currency;
             this.playerBalance = playerBalance;
-            nItemValue = new ArrayList<>(amount+1);
-            for (int i=0;i<=amount;i++) nItemValue.add(BigDecimal.ZERO); //can't be empty for update()
-            canAfford = purchase ? 0 : Integer.MAX_VALUE;
-            limitAccount = purchase ? 0 : Integer.MAX_VALUE;
-            limitCurrency = purchase ? 0 : Integer.MAX_VALUE;
-            limitItems = purchase ? 0 : Integer.MAX_VALUE;
             update();
         }
         /** calculated the end values for each amount and updated the can-afford value for the passed player balance. the player balance will not be updated */
         public void update() {
-            //hold multiplicators for (index+1)th item
-            List<Double> scales; // indices: 0, 1, ..., AMOUNT-1
+            if (origin == null) {
+                compute();
+                return;
+            }
+            // computed again if a soft reload got in between, see PriceCalculator#configLock
+            StampedLock configLock = origin.configLock;
+            long stamp = configLock.tryOptimisticRead();
+            compute();
+            if (configLock.validate(stamp)) return;
+            stamp = configLock.readLock();
+            try {
+                compute();
+            } finally {
+                configLock.unlockRead(stamp);
+            }
+        }
+        private void compute() {
+            // the multipliers per tracker are geometric sequences, so is their product.
+            // the trackers are fused by multiplying initial values and ratios
+            double first;
 
             // max value is minimum available value over all trackers
             BigDecimal maxValue;
             // max amount is minimum available amount over all trackers
 
             if (purchase) {
-                scales = DecayUtil.createGrowthMultiplicationVector(global.peek(), global.getGrowthRate(), amount-1);
+                first = global.peek();
+                ratio = DecayUtil.growthRatio(global.getGrowthRate());
                 maxValue = global.getPurchaseValueCapacity(currency);
                 limitItems = global.getPurchaseItemCapacity();
             } else {
-                scales = DecayUtil.createDecayMultiplicationVector(global.peek(), global.getDecayRate(), amount-1);
+                first = global.peek();
+                ratio = DecayUtil.decayRatio(global.getDecayRate());
                 maxValue = global.getDistributeValueCapacity(currency);
                 limitItems = global.getDistributeItemCapacity();
             }
             if (shop != null) {
+                first *= shop.peek();
                 if (purchase) {
-                    scales = multiply(scales, DecayUtil.createGrowthMultiplicationVector(shop.peek(), shop.getGrowthRate(), amount-1));
+                    ratio *= DecayUtil.growthRatio(shop.getGrowthRate());
                     BigDecimal cap = shop.getPurchaseValueCapacity(currency);
                     if (cap.compareTo(maxValue)<0) maxValue = cap;
                     int cnt = shop.getPurchaseItemCapacity();
                     if (cnt < limitItems) limitItems = cnt;
                 } else {
-                    scales = multiply(scales, DecayUtil.createDecayMultiplicationVector(shop.peek(), shop.getDecayRate(), amount-1));
+                    ratio *= DecayUtil.decayRatio(shop.getDecayRate());
                     BigDecimal cap = shop.getDistributeValueCapacity(currency);
                     if (cap.compareTo(maxValue)<0) maxValue = cap;
                     int cnt = shop.getDistributeItemCapacity();
@@ -280,52 +778,64 @@ public class PriceCalculator implements PriceCalculationService {
                 }
             }
             if (player != null) {
+                first *= player.peek();
                 if (purchase) {
-                    scales = multiply(scales, DecayUtil.createGrowthMultiplicationVector(player.peek(), player.getGrowthRate(), amount-1));
+                    ratio *= DecayUtil.growthRatio(player.getGrowthRate());
                     BigDecimal cap = player.getPurchaseValueCapacity(currency);
                     if (cap.compareTo(maxValue)<0) maxValue = cap;
                     int cnt = player.getPurchaseItemCapacity();
                     if (cnt < limitItems) limitItems = cnt;
                 } else {
-                    scales = multiply(scales, DecayUtil.createDecayMultiplicationVector(player.peek(), player.getDecayRate(), amount-1));
+                    ratio *= DecayUtil.decayRatio(player.getDecayRate());
                     BigDecimal cap = player.getDistributeValueCapacity(currency);
                     if (cap.compareTo(maxValue)<0) maxValue = cap;
                     int cnt = player.getDistributeItemCapacity();
                     if (cnt < limitItems) limitItems = cnt;
                 }
             }
-            BigDecimal thisValue; BigDecimal accumulativeMultiplier = BigDecimal.ZERO;
-            for (int i = 1; i <= amount; i++) {
-                accumulativeMultiplier = accumulativeMultiplier.add(BigDecimal.valueOf(scales.get(i-1))); //price of 1 item is static price * multiplier after 0 iterations
-                thisValue = staticPrice.multiply(accumulativeMultiplier);
-                nItemValue.set(i, thisValue);
-                if (purchase) {
-                    if ((playerBalance == null || playerBalance.compareTo(thisValue) >= 0)) {
-                        limitAccount = i;
-                    }
-                    if (thisValue.compareTo(maxValue) <= 0) {
-                        limitCurrency = i;
-                    }
-                } else {
-                    //this value still fits in the player remaining account capacity
-                    if ((playerBalance == null || thisValue.compareTo(playerBalance)<=0)) {
-                        limitAccount = i;
-                    }
-                    if (thisValue.compareTo(maxValue) <= 0) {
-                        limitCurrency = i;
-                    }
-                }
+            firstMultiplier = first;
+            if (!lazy) {
+                if (nItemMultiplier == null || nItemMultiplier.length <= amount)
+                    nItemMultiplier = new double[amount+1];
+                DecayUtil.fillGeometricPrefixSums(nItemMultiplier, first, ratio, amount);
             }
+
+            // if purchasing the player balance is what the player can spend, if selling
+            // it's the remaining account capacity. either way the value has to fit
+            limitAccount = playerBalance == null ? amount : getAmountWithin(playerBalance);
+            limitCurrency = getAmountWithin(maxValue);
             canAfford = VMath.min(limitAccount, limitItems, limitCurrency, amount);
         }
+        /** @return the maximum amount of items, whose cumulative value does not exceed the limit */
+        private int getAmountWithin(BigDecimal limit) {
+            double bound = limit.doubleValue();
+            double price = staticPrice.doubleValue();
+            // cumulative values are monotonic, search the last amount within the bound
+            int low = 0, high = amount;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (price * getCumulativeMultiplier(mid) <= bound) low = mid;
+                else high = mid - 1;
+            }
+            int n = low;
+            // the double comparison might be off at the boundary, correct with the actual values
+            while (n > 0 && getCumulativeValueFor(n).compareTo(limit) > 0) n--;
+            while (n < amount && getCumulativeValueFor(n+1).compareTo(limit) <= 0) n++;
+            return n;
+        }
         /** The index of the returned list matched the number of items for the value at the index */
         public ImmutableList<BigDecimal> getCumulativeValueForItems() {
-            return ImmutableList.<BigDecimal>builder().addAll(nItemValue).build();
+            ImmutableList.Builder<BigDecimal> builder = ImmutableList.builder();
+            for (int i = 0; i <= amount; i++) builder.add(getCumulativeValueFor(i));
+            return builder.build();
         }
         public BigDecimal getCumulativeValueFor(int nItems) {
             if (nItems < 0) throw new IllegalArgumentException("Can't get a value for negative quantities");
             if (nItems > amount) throw new IllegalArgumentException("The result was calculated for "+amount+" items, you asked for "+nItems);
-            return nItemValue.get(nItems);
+            return staticPrice.multiply(BigDecimal.valueOf(getCumulativeMultiplier(nItems)));
+        }
+        private double getCumulativeMultiplier(int nItems) {
+            return lazy ? DecayUtil.geometricSum(firstMultiplier, ratio, nItems) : nItemMultiplier[nItems];
         }
         /** @return the amount of items the player can afford if this Result expresses a purchase. Otherwise the player balance was interpreted as
          * account limit and this equals the amount of items the player can sell, before the account hits it's limit.
@@ -337,23 +847,83 @@ public class PriceCalculator implements PriceCalculationService {
         public int getAffordableAmount() {
             return canAfford;
         }
-        /** confirm that the specified amount of items was just purchased or sold and to adjust price rates now
-         * @throws IllegalArgumentException if amount is greater than {@link #getAffordableAmount()}
+        /** confirm that the specified amount of items was just purchased or sold and to adjust price rates now.
+         * The limits are checked again and the trade is applied to all trackers at once, so concurrent
+         * confirmations can't exceed the limits.
+         * @throws IllegalArgumentException if amount is greater than {@link #getAffordableAmount()} or
+         * other trades used up the limits since this result was calculated
+         * @throws IllegalStateException if the trackers were dropped and the calculator was replaced since
          */
         public void confirm(int amount) {
             if (amount > canAfford)
                 throw new IllegalArgumentException("The specified amount can not be traded!");
             if (amount < 1) return;
+            long start = Metrics.start();
+            // trackers dropped since this result was created (players leaving, eviction, reloads)
+            // would lose the trade, so they are looked up again and the limits checked on those.
+            // once the calculator was replaced, the lookup throws
+            // soft reloads wait for the trade, so it is applied with one configuration
+            long stamp = origin == null ? 0L : origin.configLock.readLock();
+            try {
+                while (!tryConfirm(amount)) {
+                    if (origin == null)
+                        throw new IllegalStateException("The trackers for this result were dropped, please request a new result");
+                    origin.resolve(this);
+                }
+            } finally {
+                if (origin != null) origin.configLock.unlockRead(stamp);
+            }
+            if (origin != null) {
+                origin.metrics.record(PriceMetrics.Operation.CONFIRM, start);
+                origin.traded(this);
+            }
+        }
+        /** @return false if a tracker was retired and nothing was applied */
+        private boolean tryConfirm(int amount) {
+            // always lock in scope order, so concurrent confirmations can't deadlock
+            synchronized (global) {
+                if (shop == null) {
+                    return confirmLocked(amount);
+                } else synchronized (shop) {
+                    return confirmLocked(amount);
+                }
+            }
+        }
+        private boolean confirmLocked(int amount) {
+            if (player == null) {
+                return apply(amount);
+            } else synchronized (player) {
+                return apply(amount);
+            }
+        }
+        /** has to be called with all trackers locked. retired trackers are checked under the lock,
+         * so the trade is either in the state they were paged out with or not applied at all.
+         * A replaced calculator keeps its global and shop trackers, so it counts as retired as well */
+        private boolean apply(int amount) {
+            if ((origin != null && origin.retired) ||
+                    global.isRetired() || (shop != null && shop.isRetired()) || (player != null && player.isRetired()))
+                return false;
+            BigDecimal value = getCumulativeValueFor(amount);
+            if (!hasCapacity(global, amount, value) ||
+                    (shop != null && !hasCapacity(shop, amount, value)) ||
+                    (player != null && !hasCapacity(player, amount, value)))
+                throw new IllegalArgumentException("The specified amount can no longer be traded!");
             if (purchase) {
-                global.grow(amount);
-                if (shop != null) shop.grow(amount);
-                if (player != null) player.grow(amount);
+                global.grow(amount, currency, value);
+                if (shop != null) shop.grow(amount, currency, value);
+                if (player != null) player.grow(amount, currency, value);
             } else {
-                global.decay(amount);
-                if (shop != null) shop.decay(amount);
-                if (player != null) player.decay(amount);
+                global.decay(amount, currency, value);
+                if (shop != null) shop.decay(amount, currency, value);
+                if (player != null) player.decay(amount, currency, value);
             }
-            Sponge.getEventManager().post(new PriceUpdateEvent(item));
+            return true;
+        }
+        private boolean hasCapacity(ItemTracker tracker, int amount, BigDecimal value) {
+            if (purchase)
+                return tracker.getPurchaseItemCapacity() >= amount && tracker.getPurchaseValueCapacity(currency).compareTo(value) >= 0;
+            else
+                return tracker.getDistributeItemCapacity() >= amount && tracker.getDistributeValueCapacity(currency).compareTo(value) >= 0;
         }
 
         @Override
@@ -372,67 +942,61 @@ public class PriceCalculator implements PriceCalculationService {
         }
     }
 
+    /** @return null if there is no player to check the balance for or the balance is not known yet */
     private BigDecimal getAccountBalance(@Nullable UUID playerID, Currency currency) {
-        Optional<UniqueAccount> account = TooMuchStock.getEconomy().getOrCreateAccount(playerID);
-        return account.map(uniqueAccount -> uniqueAccount.getBalance(currency)).orElse(BigDecimal.ZERO);
+        if (playerID == null) return null;
+        return environment.getBalance(playerID, currency);
     }
-    /** @return null if accounts for this currency are not capped */
+    /** @return null if there is no player or accounts for this currency are not capped */
     private BigDecimal getAccountCapacity(@Nullable UUID playerID, Currency currency) {
-        return null; //don't know how to get that
-    }
-
-    private static List<Double> multiply(List<Double> a, List<Double> b) {
-        assert a.size()==b.size();
-        List<Double> elemsum = new ArrayList<>(a.size());
-        for (int i = 0; i < a.size(); i++) elemsum.add(a.get(i)*b.get(i));
-        return elemsum;
-    }
-
-//    public void unloadPlayerState(UUID player) {
-//        PriceManipulator manipulator = playerManips.remove(player);
-//        if (manipulator==null) return;
-//        manipulator.cleanUp();
-//        try {
-//            Path playerCache = TooMuchStock.getCacheDirectory()
-//                    .resolve("players");
-//            Files.createDirectories(playerCache);
-//            playerCache = playerCache.resolve(player.toString().replace("-", "")+".bin");
-//
-//            HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
-//                    .setPath(playerCache)
-//                    .build();
-//            CommentedConfigurationNode node = loader.createEmptyNode();
-//            manipulator.toConfiguration(node);
-//            node.getNode("StateTime").setValue(System.currentTimeMillis());
-//            loader.save(node);
-//        } catch (Throwable t) {
-//            TooMuchStock.w("Could not dump player state for %s", player.toString());
-//            t.printStackTrace();
-//        }
-//    }
-//    public void loadPlayerState(UUID player) {
-//        try {
-//            Path playerCache = TooMuchStock.getCacheDirectory()
-//                    .resolve("players")
-//                    .resolve(player.toString().replace("-", "")+".bin");
-//            if (!Files.exists(playerCache)) return; //nothing caches
-//
-//            HoconConfigurationLoader loader = HoconConfigurationLoader.builder()
-//                    .setPath(playerCache)
-//                    .build();
-//            CommentedConfigurationNode node = loader.load();
-//            PriceManipulator manipulator = PriceManipulator.fromConfiguration(node);
-//            long stateTime = node.getNode("StateTime").getLong();
-//            loader.save(node);
-//            //patch in new base tracker values
-//            manipulator.merge(playerBase);
-//            manipulator.bigBrainTime(stateTime);
-//            manipulator.cleanUp();
-//            playerManips.put(player, manipulator);
-//        } catch (Throwable t) {
-//            TooMuchStock.w("Could not read cached player state for %s. State is reset", player.toString());
-//            t.printStackTrace();
-//        }
-//    }
+        if (playerID == null) return null;
+        return environment.getCapacity(playerID, currency);
+    }
+
+    /** @return the player manipulators currently held in memory */
+    Map<UUID, PriceManipulator> getResidentPlayers() {
+        return Collections.unmodifiableMap(playerManips);
+    }
+
+    /** writes the player state to the players cache file and removes it from memory */
+    public void unloadPlayerState(UUID player) {
+        // retire before taking the snapshot: trades confirmed until then are in the snapshot, later
+        // ones look up the paged in state. the snapshot is taken in memory while the entry is locked,
+        // so the player can't be paged in from an older file meanwhile
+        playerManips.computeIfPresent(player, (id, manipulator) -> {
+            manipulator.retire();
+            environment.pageOut(id, manipulator).exceptionally(t -> {
+                environment.warn(String.format("Could not dump player state for %s: %s", id.toString(), t.getMessage()));
+                return null;
+            });
+            return null;
+        });
+    }
+    /** reads the player state from the players cache file, if the player is not in memory yet */
+    public void loadPlayerState(UUID player) {
+        getPlayerManipulator(player);
+    }
+    /**
+     * The state is read outside the maps locks, as it might come from disk. If another thread
+     * paged in the player meanwhile, that state is used instead.
+     */
+    private PriceManipulator getPlayerManipulator(UUID player) {
+        PriceManipulator manipulator = playerManips.get(player);
+        if (manipulator != null) return manipulator;
+        manipulator = pageInPlayer(player);
+        PriceManipulator raced = playerManips.putIfAbsent(player, manipulator);
+        return raced == null ? manipulator : raced;
+    }
+    private PriceManipulator pageInPlayer(UUID player) {
+        PriceManipulator manipulator = playerBase.clone();
+        try {
+            environment.pageIn(player, manipulator);
+        } catch (IOException e) {
+            environment.warn(String.format("Could not read cached player state for %s. State is reset", player.toString()));
+            e.printStackTrace();
+            manipulator = playerBase.clone();
+        }
+        return manipulator;
+    }
 
 }
@@ -1,60 +1,125 @@
 package de.dosmike.sponge.toomuchstock.maths;
 
+import com.google.common.collect.Iterators;
 import de.dosmike.sponge.toomuchstock.ConfigKeys;
 import de.dosmike.sponge.toomuchstock.TooMuchStock;
 import de.dosmike.sponge.toomuchstock.utils.ApplicabilityFilters;
+import de.dosmike.sponge.toomuchstock.utils.ItemDefinitions;
 import de.dosmike.sponge.toomuchstock.utils.ItemTypeEx;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.item.ItemType;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * This class wraps the configuration and current prices
  * to track prices and present the correct ones according to
- * the config.
+ * the config.<br>
+ * Trackers can be requested from any thread, while the structure of the manipulator
+ * (configuration, merging, state) is only changed on the main thread.
  */
 public class PriceManipulator {
 
     /**
-     * Stores the config value for reset time as interval in minutes.
-     * Will be null if the reset time is a time of day.
+     * The reset schedule is shared with all clones of this manipulator, so
+     * resets are computed once per scope (global, shops, players).
      */
-    private Integer resetTimeInterval;
+    private ResetSchedule resetSchedule = ResetSchedule.none();
 
     /**
-     * Stores the config value for reset time as time of day.
-     * Will be null if the reset time is a interval.
+     * Each item will change value individually within this
+     * manipulators influence.
+     * Note: This list needs to keep order, as some predicated have a higher
+     * priority than others.
+     * Lookups should go through the index below, don't forget to {@link #reindex()}
+     * if you modify this list other than through {@link #addTracker}.
+     * The list is copy on write, as it's only modified on reload but iterated by
+     * other threads. Clones keep this list empty and look up the template instead.
      */
-    private Date resetTimePoint;
-
+    private volatile List<ItemTracker> trackers = new CopyOnWriteArrayList<>();
     /**
-     * To quickly check if timely resets are event enabled
+     * The base manipulator this manipulator was cloned from, or null for base manipulators.
+     * Clones don't copy the configured trackers, but materialize their own tracker from the
+     * templates tracker the first time an item is requested in this scope.
      */
-    private boolean hasResetTime;
-
+    private final PriceManipulator template;
     /**
-     * Stores the next, pre-calculated time to reset the trackers.
+     * The trackers materialized from the templates trackers, keyed by the template tracker.
+     * Only used by clones.
      */
-    private Long nextResetTime = 0L;
-
+    private final Map<ItemTracker, ItemTracker> localTrackers = new ConcurrentHashMap<>();
     /**
-     * Each item will change value individually within this
-     * manipulators influence.
-     * Note: This list needs to keep order, as some predicated have a higher
-     * priority than others.
-     * //TODO find a nifty way to quickly find the tracker from an ItemStack
+     * The lookup index for the trackers list. Once a manipulator is in use, the index
+     * is only ever replaced as a whole, so lookups on other threads always see a
+     * complete index.
+     */
+    private volatile TrackerIndex index = new TrackerIndex();
+    /**
+     * Trackers that were created from the default configuration for items without
+     * specific configuration. These always have the lowest priority and only match
+     * by item type, so they don't need to go into the trackers list.
      */
-    private List<ItemTracker> trackers = new LinkedList<>();
+    private Map<ItemType, ItemTracker> derivedTrackers = new ConcurrentHashMap<>();
     /**
-     * Stores the default configuration
+     * Trackers that were used since they were last idle. Only these have to be
+     * checked for eviction, all others are either base trackers or already gone.
      */
-    private ItemTracker defaultTrackerConfiguration;
+    private Set<ItemTracker> activeTrackers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /** The minute (since epoch) a tracker was last requested from this manipulator */
+    private volatile long lastTouched = ItemTracker.currentMinute();
+
+    private static class TrackerIndex {
+        /**
+         * Trackers by the item type their filter is restricted to. Every bucket is
+         * sorted by priority (position in trackers), so the first match in a bucket
+         * is the best match for that item type.
+         */
+        final Map<ItemType, List<IndexEntry>> typeIndex = new HashMap<>();
+        /**
+         * Trackers with custom filters that are not restricted to a single item type.
+         * These still have to be tested for every item, sorted by priority.
+         */
+        final List<IndexEntry> unindexed = new ArrayList<>();
+        /** priority for the next tracker added */
+        int nextPriority = 0;
+
+        void add(ItemTracker tracker) {
+            IndexEntry entry = new IndexEntry(nextPriority++, tracker);
+            Optional<ItemType> type = tracker.getFilteredType();
+            if (type.isPresent())
+                typeIndex.computeIfAbsent(type.get(), (t)->new ArrayList<>(2)).add(entry);
+            else
+                unindexed.add(entry);
+        }
+    }
+    private static class IndexEntry {
+        final int priority;
+        final ItemTracker tracker;
+        IndexEntry(int priority, ItemTracker tracker) {
+            this.priority = priority;
+            this.tracker = tracker;
+        }
+    }
+    /**
+     * Stores the default configuration, shared by all derived trackers
+     */
+    private volatile TrackerConfiguration defaultTrackerConfiguration;
+
+    private PriceManipulator(@Nullable PriceManipulator template) {
+        this.template = template;
+    }
 
     /**
      * Get or create the ItemTracker for the specified item and return it
@@ -62,49 +127,147 @@ public class PriceManipulator {
      * @return the corresponding ItemTracker instance
      */
     ItemTracker getTrackerFor(ItemStackSnapshot item) {
-        for (ItemTracker tracker : trackers) {
-            if (tracker.getApplicabilityFilter().test(item))
-                return tracker;
+        ItemTracker tracker;
+        if (template != null) {
+            ItemTracker prototype = template.findTracker(item);
+            tracker = prototype != null ? getLocalTracker(prototype) : null;
+        } else {
+            tracker = findTracker(item);
         }
-        ItemTracker t = defaultTrackerConfiguration.newTracker( ApplicabilityFilters.generateItemTypeEquals(item.getType()) );
-        t.derived = true;
-        trackers.add(t);
-        return t;
+        if (tracker == null) {
+            tracker = getDerivedTracker(item.getType());
+        }
+        touch(tracker);
+        return tracker;
+    }
+    /** mark a tracker that was looked up earlier as used again */
+    void touch(ItemTracker tracker) {
+        tracker.touch();
+        activeTrackers.add(tracker);
+        lastTouched = ItemTracker.currentMinute();
     }
     Optional<ItemTracker> getIfCurrentlyTracked(ItemStackSnapshot item) {
-        for (ItemTracker tracker : trackers) {
-            if (tracker.getApplicabilityFilter().test(item))
-                return Optional.of(tracker);
+        ItemTracker tracker;
+        if (template != null) {
+            ItemTracker prototype = template.findTracker(item);
+            // a configured tracker that was not materialized yet still shadows the derived one
+            if (prototype != null) return Optional.ofNullable(localTrackers.get(prototype));
+            tracker = null;
+        } else {
+            tracker = findTracker(item);
+        }
+        if (tracker == null)
+            tracker = derivedTrackers.get(item.getType());
+        return Optional.ofNullable(tracker);
+    }
+
+    /** get or create this scopes instance of a template tracker */
+    private ItemTracker getLocalTracker(ItemTracker prototype) {
+        return localTrackers.computeIfAbsent(prototype, p -> {
+            ItemTracker t = p.clone();
+            t.attach(resetSchedule);
+            return t;
+        });
+    }
+
+    private ItemTracker getDerivedTracker(ItemType itemType) {
+        return derivedTrackers.computeIfAbsent(itemType, type -> {
+            ItemTracker t = new ItemTracker(ConfigKeys.KEY_DEFAULT, ApplicabilityFilters.generateItemTypeEquals(type), defaultTrackerConfiguration);
+            t.derived = true;
+            t.attach(resetSchedule);
+            return t;
+        });
+    }
+
+    /**
+     * Only tests the trackers in the item types bucket and the unindexed trackers
+     * with a higher priority than the best match within that bucket.
+     * @return the tracker with the highest priority for this item or null
+     */
+    private ItemTracker findTracker(ItemStackSnapshot item) {
+        TrackerIndex index = this.index;
+        IndexEntry match = null;
+        List<IndexEntry> bucket = index.typeIndex.get(item.getType());
+        if (bucket != null) for (IndexEntry entry : bucket) {
+            if (entry.tracker.getApplicabilityFilter().test(item)) {
+                match = entry;
+                break;
+            }
+        }
+        for (IndexEntry entry : index.unindexed) {
+            if (match != null && entry.priority > match.priority)
+                break;
+            if (entry.tracker.getApplicabilityFilter().test(item))
+                return entry.tracker;
         }
-        return Optional.empty();
+        return match != null ? match.tracker : null;
+    }
+    /** append a tracker with the lowest priority. only for manipulators that are not in use yet */
+    private void addTracker(ItemTracker tracker) {
+        tracker.attach(resetSchedule);
+        trackers.add(tracker);
+        index.add(tracker);
+    }
+    /** rebuild the lookup index after the trackers list was modified */
+    private void reindex() {
+        TrackerIndex rebuilt = new TrackerIndex();
+        for (ItemTracker tracker : trackers) rebuilt.add(tracker);
+        index = rebuilt;
+    }
+    /** @return the amount of minutes since a tracker was last requested from this manipulator */
+    long getMinutesUntouched() {
+        return ItemTracker.currentMinute() - lastTouched;
     }
     /** @return true if the number of tracked items is 0 */
     public boolean isIdle() {
-        return trackers.isEmpty();
+        return trackers.isEmpty() && localTrackers.isEmpty() && derivedTrackers.isEmpty();
+    }
+
+    /** @return the amount of trackers in memory for this manipulator */
+    int getTrackerCount() {
+        return trackers.size() + localTrackers.size() + derivedTrackers.size();
+    }
+    /** @return the amount of trackers created from the default configuration */
+    int getDerivedTrackerCount() {
+        return derivedTrackers.size();
+    }
+
+    /** @return true if no tracker holds discrepancy, limit values or history worth saving */
+    boolean isPristine() {
+        for (ItemTracker tracker : allTrackers())
+            if (!tracker.isPristine()) return false;
+        return true;
+    }
+
+    /** iterates over configured, materialized and derived trackers */
+    private Iterable<ItemTracker> allTrackers() {
+        return () -> Iterators.concat(trackers.iterator(), localTrackers.values().iterator(), derivedTrackers.values().iterator());
     }
 
     /**
-     * To be called once a minute. Will reset the Trackers when the
-     * reset point is reached and decay price discrepancy */
-    public void think() {
-        if (hasResetTime && System.currentTimeMillis() >= nextResetTime) {
-            if (nextResetTime != 0L) {
-                for (ItemTracker t : trackers) t.reset();
-            }
-            //calculate next reset in ms
-            if (resetTimeInterval != null) {
-                nextResetTime = System.currentTimeMillis()+60_000L*resetTimeInterval;
-            } else if (resetTimePoint != null) {
-                Calendar timeCalendar = new Calendar.Builder().setInstant(resetTimePoint).build();
-                Calendar nowCalendar = Calendar.getInstance(timeCalendar.getTimeZone());
-                timeCalendar.set(nowCalendar.get(Calendar.YEAR), nowCalendar.get(Calendar.MONTH), nowCalendar.get(Calendar.DAY_OF_MONTH));
-                if (nowCalendar.after(timeCalendar)) //reset time already passed
-                    timeCalendar.add(Calendar.DAY_OF_MONTH, 1);
-                nextResetTime = timeCalendar.getTimeInMillis();
-            } //else timed resets are disabled
-        } else {
-            for (ItemTracker tracker : trackers) {
-                tracker.decayTick();
+     * To be called once a minute. Will advance the reset epoch when the
+     * reset point is reached and evict derived and materialized trackers that have nothing
+     * left to remember.
+     * Price discrepancy decays and resets lazily within the trackers, so only
+     * trackers that were used recently have to be looked at.
+     * @param changed receives the trackers that changed prices since they were last reported */
+    public void think(Consumer<ItemTracker> changed) {
+        resetSchedule.think();
+        Iterator<ItemTracker> iterator = activeTrackers.iterator();
+        while (iterator.hasNext()) {
+            ItemTracker tracker = iterator.next();
+            if (tracker.pollChanged()) changed.accept(tracker);
+            // evicted trackers might still be referenced by recent transaction previews
+            if (tracker.isPristine() && tracker.getMinutesUntouched() >= ItemTracker.stonkDuration) {
+                iterator.remove();
+                // only remove this instance, a lookup might have replaced it in the meantime
+                if (tracker.derived) {
+                    tracker.getFilteredType().ifPresent(type -> derivedTrackers.computeIfPresent(type, (k, t) -> t == tracker ? null : t));
+                    tracker.retire();
+                } else if (template != null) {
+                    localTrackers.computeIfPresent(tracker, (k, t) -> t == tracker ? null : t);
+                    tracker.retire();
+                }
             }
         }
     }
@@ -112,117 +275,213 @@ public class PriceManipulator {
     /**
      * Performs the think transformations for the specified amount of time without repeatedly calling think.
      * This will bring all item trackers in this manipulator back to date. This allows unloading data for players
-     * that are offline. Shop and global manipulators probably should not call this!
+     * that are offline or restoring state after a restart. The reset schedule has to be up to date for this.
      * @param from the last calculated time in ms
      */
     public void bigBrainTime(long from) {
-        long now = System.currentTimeMillis();
-        long minutes = (now-from)/60_000L;
-        if (hasResetTime) {
-            //calculate next reset in ms
-            if (resetTimeInterval != null) {
-                if (nextResetTime == 0L) //not yet calculated?
-                    nextResetTime = System.currentTimeMillis();
-                else {
-                    long skipped = minutes / resetTimeInterval; // = passed intervals (floored)
-                    nextResetTime = nextResetTime + (60_000L * resetTimeInterval * skipped); //speed ahead
-                }
-            } else if (resetTimePoint != null) {
-                Calendar timeCalendar = new Calendar.Builder().setInstant(resetTimePoint).build();
-                Calendar nowCalendar = Calendar.getInstance(timeCalendar.getTimeZone());
-                timeCalendar.set(nowCalendar.get(Calendar.YEAR), nowCalendar.get(Calendar.MONTH), nowCalendar.get(Calendar.DAY_OF_MONTH));
-                if (nowCalendar.after(timeCalendar)) //reset time already passed
-                    timeCalendar.add(Calendar.DAY_OF_MONTH, 1);
-                nextResetTime = timeCalendar.getTimeInMillis();
-            } //else timed resets are disabled
+        long minutes = (Clock.currentTimeMillis()-from)/60_000L;
+        if (resetSchedule.hasResetSince(from)) {
+            for (ItemTracker t : allTrackers()) t.reset(); //a reset passed since the state was written, this clears the limit counters too
+            return;
+        }
+        for (ItemTracker t : allTrackers()) t.decayTicks(minutes);
+    }
 
-            //calculate previous reset time
-            long previousResetTime = now;
-            if (resetTimeInterval != null) {
-                previousResetTime = nextResetTime - 60_000L*resetTimeInterval;
-            } else if (resetTimePoint != null) {
-                previousResetTime = nextResetTime - 24*60*60*1000; // time point is time of day
+    ResetSchedule getResetSchedule() {
+        return resetSchedule;
+    }
+
+    /**
+     * Writes the state of all trackers that hold something worth saving. Trackers are identified by
+     * the name of their configuration, derived trackers by the id of the item type they track.
+     */
+    void writeState(DataOutput out) throws IOException {
+        List<ItemTracker> relevant = new LinkedList<>();
+        for (ItemTracker tracker : allTrackers())
+            if (!tracker.isPristine()) relevant.add(tracker);
+        out.writeInt(relevant.size());
+        for (ItemTracker tracker : relevant) {
+            out.writeBoolean(tracker.derived);
+            out.writeUTF(tracker.getItemKey());
+            tracker.writeState(out);
+        }
+    }
+    /**
+     * Reads the state written by {@link #writeState} into this manipulator. States for trackers that
+     * are no longer configured are dropped. Afterwards the time since the state was written is caught
+     * up with {@link #bigBrainTime}.
+     * @param itemTypes cache for item type lookups, shared for all manipulators in a state file
+     * @param savedAt the time the state was written in ms
+     */
+    void readState(DataInput in, Map<String, Optional<ItemType>> itemTypes, long savedAt) throws IOException {
+        Map<String, ItemTracker> configured = new HashMap<>();
+        // configuration keys match case insensitive, like on reloads
+        for (ItemTracker tracker : template != null ? template.trackers : trackers) configured.put(tracker.getApplicabilityFilterName().toLowerCase(Locale.ROOT), tracker);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            boolean derived = in.readBoolean();
+            String key = in.readUTF();
+            ItemTracker target;
+            if (derived) {
+                target = itemTypes.computeIfAbsent(key, id -> Sponge.getRegistry().getType(ItemType.class, id))
+                        .map(this::getDerivedTracker)
+                        .orElse(null);
+            } else {
+                target = configured.get(key.toLowerCase(Locale.ROOT));
+                if (target != null && template != null)
+                    target = getLocalTracker(target);
             }
-            if (from < previousResetTime) {
-                for (ItemTracker t : trackers) t.reset(); //the trackers were reset since this player went
-                return;
+            if (target == null) {
+                // still have to consume the data
+                new ItemTracker(ConfigKeys.KEY_DEFAULT, ApplicabilityFilters.pass, defaultTrackerConfiguration).readState(in);
+            } else {
+                target.readState(in);
+                activeTrackers.add(target);
             }
         }
-        for (ItemTracker t : trackers) t.decayTicks(minutes);
+        bigBrainTime(savedAt);
     }
 
     /** delete all ItemTrackers that are currently "idle", meaning they have a discrepancy of 0 */
     public void cleanUp() {
-        trackers.removeIf(ItemTracker::isIdle);
+        if (trackers.removeIf(PriceManipulator::retireIfIdle))
+            reindex();
+        localTrackers.values().removeIf(PriceManipulator::retireIfIdle);
+        derivedTrackers.values().removeIf(PriceManipulator::retireIfIdle);
+        activeTrackers.removeIf(ItemTracker::isRetired);
+    }
+    private static boolean retireIfIdle(ItemTracker tracker) {
+        if (!tracker.isIdle()) return false;
+        tracker.retire();
+        return true;
+    }
+
+    /** retire all trackers, because this manipulator is dropped */
+    void retire() {
+        for (ItemTracker tracker : allTrackers()) tracker.retire();
     }
 
+    /**
+     * Creates an empty manipulator for a single shop or player, that is linked to this base
+     * manipulator. Trackers are only created for items that are actually used in that scope.
+     */
     protected PriceManipulator clone()  {
-        PriceManipulator clone = new PriceManipulator();
-        clone.resetTimePoint = this.resetTimePoint;
-        clone.resetTimeInterval = this.resetTimeInterval;
-        clone.hasResetTime = this.hasResetTime;
-        clone.nextResetTime = this.nextResetTime;
-        clone.defaultTrackerConfiguration = this.defaultTrackerConfiguration.clone();
-        clone.trackers = new LinkedList<>();
-        for (ItemTracker tracker : this.trackers) {
-            clone.trackers.add(tracker.clone());
-        }
+        PriceManipulator clone = new PriceManipulator(template != null ? template : this);
+        clone.resetSchedule = this.resetSchedule;
+        clone.defaultTrackerConfiguration = this.defaultTrackerConfiguration;
         return clone;
     }
 
-    /** pull values from another instance to minimize abuse on reload */
-    public void merge(PriceManipulator other) {
-        defaultTrackerConfiguration.merge(other.defaultTrackerConfiguration);
-        trackers.retainAll(other.trackers);
-        List<ItemTracker> newTrackers = new LinkedList<>(other.trackers);
-        newTrackers.removeAll(trackers);
-        for (ItemTracker tracker : trackers) {
-            int i = other.trackers.indexOf(tracker); //should use custom .equals()
-            if (i>=0) tracker.merge(other.trackers.get(i));
+    /**
+     * The changes a reload made to a base manipulator. Computed once by {@link #merge} and
+     * applied to all clones of that base manipulator with {@link #apply}.
+     */
+    public static class TemplateUpdate {
+        private final TrackerConfiguration defaultTrackerConfiguration;
+        /** the base trackers that are no longer configured */
+        private final Set<ItemTracker> removed;
+
+        private TemplateUpdate(TrackerConfiguration defaultTrackerConfiguration, Set<ItemTracker> removed) {
+            this.defaultTrackerConfiguration = defaultTrackerConfiguration;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Pull values from another instance to minimize abuse on reload. Trackers are matched by
+     * their configuration key, trackers that are still configured keep their state.
+     * Only for base manipulators, clones follow their template with {@link #apply}.
+     * @return the changes to apply to all clones of this manipulator
+     */
+    public TemplateUpdate merge(PriceManipulator other) {
+        if (template != null)
+            throw new IllegalStateException("Only base manipulators can be merged");
+        // keyed by name, filters for item types can't be compared across reloads
+        Map<String, ItemTracker> current = new HashMap<>();
+        for (ItemTracker tracker : trackers) current.put(tracker.getApplicabilityFilterName().toLowerCase(Locale.ROOT), tracker);
+        List<ItemTracker> merged = new ArrayList<>(other.trackers.size());
+        for (ItemTracker update : other.trackers) {
+            ItemTracker tracker = current.remove(update.getApplicabilityFilterName().toLowerCase(Locale.ROOT));
+            if (tracker != null) {
+                tracker.merge(update);
+            } else {
+                // every manipulator needs its own instance, other might be used elsewhere
+                tracker = update.clone();
+                tracker.attach(resetSchedule);
+            }
+            merged.add(tracker);
+        }
+        trackers = new CopyOnWriteArrayList<>(merged);
+        reindex();
+        // whatever is left was not in the update
+        Set<ItemTracker> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(current.values());
+        TemplateUpdate update = new TemplateUpdate(other.defaultTrackerConfiguration, removed);
+        apply(update);
+        return update;
+    }
+
+    /**
+     * Apply the changes of a reload. For clones this drops the trackers that were materialized
+     * from removed template trackers and updates the configuration for the others.
+     * Derived trackers can stay, configured trackers are always looked up first.
+     */
+    public void apply(TemplateUpdate update) {
+        defaultTrackerConfiguration = update.defaultTrackerConfiguration;
+        for (ItemTracker tracker : derivedTrackers.values()) {
+            tracker.merge(update.defaultTrackerConfiguration);
+        }
+        if (template == null) {
+            activeTrackers.removeAll(update.removed);
+            for (ItemTracker tracker : update.removed) tracker.retire();
+            return;
+        }
+        Iterator<Map.Entry<ItemTracker, ItemTracker>> iterator = localTrackers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ItemTracker, ItemTracker> e = iterator.next();
+            if (update.removed.contains(e.getKey())) {
+                iterator.remove();
+                activeTrackers.remove(e.getValue());
+                e.getValue().retire();
+            } else {
+                e.getValue().merge(e.getKey());
+            }
         }
-        trackers.addAll(newTrackers);
     }
 
     public static PriceManipulator fromConfiguration(ConfigurationNode node, @MagicConstant(stringValues = {ConfigKeys.KEY_GLOBAL, ConfigKeys.KEY_SHOPS, ConfigKeys.KEY_PLAYERS}) String forType) throws ObjectMappingException {
-        PriceManipulator manipulator = new PriceManipulator();
+        return fromConfiguration(node, forType, TooMuchStock.getItemDefinitionTable());
+    }
+    /**
+     * Parses the manipulator with the specified item definitions instead of the active ones.
+     * Filters for item types without definition are added to the definitions, so this can
+     * run on any thread as long as the definitions are not yet in use.
+     */
+    public static PriceManipulator fromConfiguration(ConfigurationNode node, @MagicConstant(stringValues = {ConfigKeys.KEY_GLOBAL, ConfigKeys.KEY_SHOPS, ConfigKeys.KEY_PLAYERS}) String forType, ItemDefinitions definitions) throws ObjectMappingException {
+        PriceManipulator manipulator = new PriceManipulator(null);
         for (Map.Entry<Object, ? extends ConfigurationNode> entry : node.getChildrenMap().entrySet()) {
             String key = entry.getKey().toString();
             ConfigurationNode valueNode = entry.getValue().getNode(forType);
             if (ConfigKeys.KEY_ITEMS.equalsIgnoreCase(key)) {
                 continue; /* not here */
             } else if (ConfigKeys.KEY_RESET.equalsIgnoreCase(key)) {
-                manipulator.hasResetTime = true;
-                String value = valueNode.getString();
-                try {
-                    manipulator.resetTimeInterval = Integer.parseInt(value);
-                    manipulator.resetTimePoint = null;
-                } catch (NumberFormatException e) {
-                    Pattern time = Pattern.compile("((?:[01]?[0-9])|(?:2[0-4])):([0-5]?[0-9])");
-                    Matcher hhmm = time.matcher(value);
-                    if (hhmm.matches()) {
-                        Calendar calendar = GregorianCalendar.getInstance();
-                        int hour = Integer.parseInt(hhmm.group(1));
-                        int min = Integer.parseInt(hhmm.group(2));
-                        calendar.set(Calendar.HOUR_OF_DAY, hour == 24 ? 0 : hour);
-                        calendar.set(Calendar.MINUTE, min);
-                        manipulator.resetTimePoint = calendar.getTime();
-                        manipulator.resetTimeInterval = null;
-                    }
-                }
+                manipulator.resetSchedule = ResetSchedule.fromConfiguration(valueNode);
 
             // key can be item type, item type + meta or name for named map of "default"
             } else if (ConfigKeys.KEY_DEFAULT.equalsIgnoreCase(key)) {
-                manipulator.defaultTrackerConfiguration = ItemTracker.fromConfiguration(ConfigKeys.KEY_DEFAULT, ApplicabilityFilters.pass, valueNode);
+                manipulator.defaultTrackerConfiguration = TrackerConfiguration.fromConfiguration(valueNode);
             } else {
                 ApplicabilityFilters<?> filter;
-                filter = TooMuchStock.getItemDefinitionTable().computeIfAbsent(key, (k)->ApplicabilityFilters.generateItemTypeMetaEquals(new ItemTypeEx(k)));
+                filter = definitions.computeIfAbsent(key, (k)->ApplicabilityFilters.generateItemTypeMetaEquals(new ItemTypeEx(k)));
                 ItemTracker tracker = ItemTracker.fromConfiguration(key, filter, valueNode);
-                manipulator.trackers.add(tracker);
+                manipulator.addTracker(tracker);
             }
         }
         if (manipulator.defaultTrackerConfiguration == null) {
             throw new ObjectMappingException("Missing '"+ ConfigKeys.KEY_DEFAULT+"' configuration value");
         }
+        // the reset might have been parsed after some trackers
+        for (ItemTracker tracker : manipulator.trackers) tracker.attach(manipulator.resetSchedule);
         return manipulator;
     }
 
@@ -241,17 +500,7 @@ public class PriceManipulator {
             node.setComment("how much total volume can be traded per player per specific items\n" +
                 "the values and related stuff for this part will run separate for every player");
         defaultTrackerConfiguration.toConfiguration(node);
-        if (hasResetTime) {
-            if (resetTimeInterval != null) {
-                parent.getNode(ConfigKeys.KEY_RESET).getNode(forType).setValue(resetTimeInterval);
-            } else if (resetTimePoint != null) {
-                Calendar cal = new GregorianCalendar();
-                cal.setTime(resetTimePoint);
-                parent.getNode(ConfigKeys.KEY_RESET).getNode(forType)
-                        .setComment("Minute period (number) OR 24-Hour time (hh:mm)")
-                        .setValue(String.format("%02d:%02d", cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE)));
-            }
-        }
+        resetSchedule.toConfiguration(parent.getNode(ConfigKeys.KEY_RESET).getNode(forType));
     }
 
 }
@@ -1,25 +1,107 @@
 package de.dosmike.sponge.toomuchstock.maths;
 
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import org.jetbrains.annotations.Nullable;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.impl.AbstractEvent;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Posted on the main thread at most once per update interval (one tick by default) with all
+ * price changes since the last event. This includes trades as well as the discrepancy decaying
+ * and resets, so listeners can redraw their displays in a single pass.
+ */
 public class PriceUpdateEvent extends AbstractEvent {
 
-    private ItemStackSnapshot snapshot;
-    private Cause cause;
-    public PriceUpdateEvent(ItemStackSnapshot item) {
-        snapshot = item;
+    /** A tracker that changed its prices within a scope */
+    public static final class Change {
+        private final PriceMetrics.Scope scope;
+        @Nullable private final UUID owner;
+        private final ItemTracker tracker;
+
+        Change(PriceMetrics.Scope scope, @Nullable UUID owner, ItemTracker tracker) {
+            this.scope = scope;
+            this.owner = owner;
+            this.tracker = tracker;
+        }
+
+        public PriceMetrics.Scope getScope() {
+            return scope;
+        }
+        /** @return the shop or player id for changes within the shops or players scope */
+        public Optional<UUID> getOwner() {
+            return Optional.ofNullable(owner);
+        }
+        /** @return the item definition name or item type id the changed tracker applies to */
+        public String getItemKey() {
+            return tracker.getItemKey();
+        }
+        /** @return true if the item is priced by the changed tracker */
+        public boolean affects(ItemStackSnapshot item) {
+            return tracker.getApplicabilityFilter().test(item);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Change)) return false;
+            Change that = (Change) o;
+            return scope == that.scope && tracker == that.tracker && Objects.equals(owner, that.owner);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * (31 * scope.hashCode() + Objects.hashCode(owner)) + System.identityHashCode(tracker);
+        }
+        @Override
+        public String toString() {
+            return scope + (owner == null ? "" : " " + owner) + " " + getItemKey();
+        }
+    }
+
+    private final Set<Change> changes;
+    private final ItemStackSnapshot snapshot;
+    private final Cause cause;
+    public PriceUpdateEvent(Set<Change> changes, @Nullable ItemStackSnapshot traded) {
+        this.changes = Collections.unmodifiableSet(changes);
+        this.snapshot = traded;
         cause = Sponge.getCauseStackManager().getCurrentCause();
     }
 
+    /** @return all trackers that changed since the last event, from trades, decay and resets */
+    public Set<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Shortcut to filter the displays you have to update.
+     * @param scope the scope to check, or null for any scope
+     * @param owner the shop or player to check, or null for any owner. global changes affect all owners
+     * @return true if any change in this event affects the prices for this item
+     */
+    public boolean affects(ItemStackSnapshot item, @Nullable PriceMetrics.Scope scope, @Nullable UUID owner) {
+        for (Change change : changes) {
+            if (scope != null && change.scope != scope) continue;
+            if (owner != null && change.owner != null && !owner.equals(change.owner)) continue;
+            if (change.affects(item)) return true;
+        }
+        return false;
+    }
+
     /**
      * Get the item that was purchased or sold as trigger to this event.<br>
      * This might be useful to filter the amount of actions you have to take following the price change.<br>
      * This value will be null if the price change was caused due to periodic decay!
-     * @return the item triggering the update or null if this event is part of the discrepancy decay
+     * @return the last item traded since the previous event or null if this event is only about discrepancy decay
+     * @deprecated events are batched and can contain multiple trades, use {@link #getChanges()} or {@link #affects}
      */
+    @Deprecated
     public ItemStackSnapshot getSnapshot() {
         return snapshot;
     }
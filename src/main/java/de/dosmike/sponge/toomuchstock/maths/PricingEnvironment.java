@@ -0,0 +1,57 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What the price calculator needs from the running server while pricing and trading, so it can be
+ * benchmarked and simulated with a replacement. Parsing the configuration and restoring saved state
+ * still go through the plugin and the Sponge registry, and items and currencies are Sponge types.
+ * Implementations have to be thread safe, as quotes and confirmations can happen on any thread.
+ */
+public interface PricingEnvironment {
+
+    /** @return true if the player is online. manipulators for offline players are paged out */
+    boolean isOnline(UUID player);
+
+    /**
+     * @return the balance of the players account, zero if the player has no account. Implementations
+     * that don't want to wait for the economy can return null while the balance is unknown, previews
+     * are then not limited by the balance
+     */
+    @Nullable
+    BigDecimal getBalance(UUID player, Currency currency);
+
+    /** @return the amount the players account can still receive, or null if not capped */
+    @Nullable
+    BigDecimal getCapacity(UUID player, Currency currency);
+
+    /**
+     * Called with the price changes collected since the last call, on the thread flushing them.
+     * @param changes the trackers that changed through trades, decay or resets
+     * @param traded the last item traded since the last call, or null
+     */
+    void pricesChanged(Set<PriceUpdateEvent.Change> changes, @Nullable ItemStackSnapshot traded);
+
+    /**
+     * Persist the players state. The manipulator is no longer used afterwards.
+     * @return a future completing once the state was written
+     */
+    CompletableFuture<Void> pageOut(UUID player, PriceManipulator manipulator);
+
+    /**
+     * Restore the persisted state of a player into a fresh manipulator.
+     * @return false if there was no state for this player
+     */
+    boolean pageIn(UUID player, PriceManipulator manipulator) throws IOException;
+
+    void warn(String message);
+
+}
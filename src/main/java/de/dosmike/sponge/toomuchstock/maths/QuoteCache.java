@@ -0,0 +1,106 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+
+/**
+ * A bounded cache for current prices, so signs and holograms that ask for the same price
+ * over and over don't recompute it every time. Prices are keyed by the trackers they were
+ * computed from, including the trackers versions. Every trade, decay or reset bumps the
+ * version, so cached prices are never served after one of the trackers changed.<br>
+ * The cache is direct mapped: every key has exactly one slot and a listing that maps to an
+ * occupied slot replaces it. Slots hold immutable entries, so reads and writes don't lock.
+ */
+final class QuoteCache {
+
+    static final class Key {
+        private final ItemTracker global;
+        @Nullable private final ItemTracker shop, player;
+        private final long globalVersion, shopVersion, playerVersion;
+        private final int amount;
+        private final BigDecimal staticPrice;
+        private final boolean purchase;
+        private final int hash;
+
+        /** reads the tracker versions, so call this before reading the trackers for the price */
+        Key(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, int amount, BigDecimal staticPrice, boolean purchase) {
+            this(global, shop, player, global.getVersion(),
+                    shop == null ? 0L : shop.getVersion(),
+                    player == null ? 0L : player.getVersion(),
+                    amount, staticPrice, purchase);
+        }
+        private Key(ItemTracker global, @Nullable ItemTracker shop, @Nullable ItemTracker player, long globalVersion, long shopVersion, long playerVersion, int amount, BigDecimal staticPrice, boolean purchase) {
+            this.global = global;
+            this.shop = shop;
+            this.player = player;
+            this.globalVersion = globalVersion;
+            this.shopVersion = shopVersion;
+            this.playerVersion = playerVersion;
+            this.amount = amount;
+            this.staticPrice = staticPrice;
+            this.purchase = purchase;
+            // trackers compare by identity, equal trackers in different scopes are different keys
+            int hash = System.identityHashCode(global);
+            hash = 31 * hash + System.identityHashCode(shop);
+            hash = 31 * hash + System.identityHashCode(player);
+            hash = 31 * hash + amount;
+            hash = 31 * hash + staticPrice.hashCode();
+            this.hash = purchase ? hash : ~hash;
+        }
+        /** @return the key for the other direction, with the same versions */
+        Key opposite() {
+            return new Key(global, shop, player, globalVersion, shopVersion, playerVersion, amount, staticPrice, !purchase);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return hash == that.hash && global == that.global && shop == that.shop && player == that.player &&
+                    globalVersion == that.globalVersion && shopVersion == that.shopVersion && playerVersion == that.playerVersion &&
+                    amount == that.amount && purchase == that.purchase && staticPrice.equals(that.staticPrice);
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final BigDecimal price;
+        Entry(Key key, BigDecimal price) {
+            this.key = key;
+            this.price = price;
+        }
+    }
+
+    /** entries only have final fields, so a racy read sees either a complete entry or null */
+    private final Entry[] slots;
+    private final int mask;
+
+    /** @param size the amount of slots, rounded up to the next power of two */
+    QuoteCache(int size) {
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new Entry[slots];
+        this.mask = slots - 1;
+    }
+
+    private int slot(Key key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /** @return the cached price for the key, or null */
+    @Nullable BigDecimal get(Key key) {
+        Entry entry = slots[slot(key)];
+        return entry != null && entry.key.equals(key) ? entry.price : null;
+    }
+
+    void put(Key key, BigDecimal price) {
+        slots[slot(key)] = new Entry(key, price);
+    }
+
+}
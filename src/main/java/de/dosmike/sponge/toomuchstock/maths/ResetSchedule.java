@@ -0,0 +1,164 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+
+import java.util.Calendar;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the reset configuration for one scope (global, shops or players) and is
+ * shared by all manipulators cloned for that scope.
+ * Instead of resetting every tracker when the reset time is reached, the reset
+ * epoch is incremented and trackers reset themselves the next time they are used.
+ * This way a reset costs the same, no matter how many trackers exist.
+ */
+public class ResetSchedule {
+
+    private static final Pattern timeOfDay = Pattern.compile("((?:[01]?[0-9])|(?:2[0-4])):([0-5]?[0-9])");
+
+    /**
+     * Stores the config value for reset time as interval in minutes.
+     * Will be null if the reset time is a time of day.
+     */
+    private Integer resetTimeInterval;
+
+    /**
+     * Stores the config value for reset time as time of day.
+     * Only valid if hasResetTimePoint is set.
+     */
+    private int resetHour, resetMinute;
+    private boolean hasResetTimePoint = false;
+
+    /**
+     * To quickly check if timely resets are event enabled
+     */
+    private boolean hasResetTime = false;
+
+    /**
+     * Stores the next, pre-calculated time to reset the trackers.
+     */
+    private volatile long nextResetTime = 0L;
+
+    /**
+     * Incremented with every reset. Trackers compare this against the epoch
+     * they were last reset in. Only advanced by {@link #think()} on the main thread,
+     * but read by trackers on any thread.
+     */
+    private volatile int epoch = 0;
+
+    /** @return a schedule that never resets */
+    public static ResetSchedule none() {
+        return new ResetSchedule();
+    }
+
+    /** Parses a minute period (number) OR 24-Hour time (hh:mm) */
+    public static ResetSchedule fromConfiguration(ConfigurationNode node) {
+        ResetSchedule schedule = new ResetSchedule();
+        String value = node.getString();
+        if (value == null) return schedule;
+        schedule.hasResetTime = true;
+        try {
+            schedule.resetTimeInterval = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Matcher hhmm = timeOfDay.matcher(value);
+            if (hhmm.matches()) {
+                int hour = Integer.parseInt(hhmm.group(1));
+                schedule.resetHour = hour == 24 ? 0 : hour;
+                schedule.resetMinute = Integer.parseInt(hhmm.group(2));
+                schedule.hasResetTimePoint = true;
+            }
+        }
+        return schedule;
+    }
+
+    public void toConfiguration(CommentedConfigurationNode node) {
+        if (!hasResetTime) return;
+        if (resetTimeInterval != null) {
+            node.setValue(resetTimeInterval);
+        } else if (hasResetTimePoint) {
+            node.setComment("Minute period (number) OR 24-Hour time (hh:mm)")
+                    .setValue(String.format("%02d:%02d", resetHour, resetMinute));
+        }
+    }
+
+    /**
+     * To be called once a minute, but can be called as often as you like.
+     * Advances the epoch when the reset point is reached.
+     */
+    public void think() {
+        long now = Clock.currentTimeMillis();
+        if (hasResetTime && now >= nextResetTime) {
+            if (nextResetTime != 0L) {
+                epoch++;
+            }
+            nextResetTime = computeNextReset(now);
+        }
+    }
+
+    /** @return the time of the next reset in ms, or 0 if not yet calculated */
+    public long getNextResetTime() {
+        return nextResetTime;
+    }
+
+    /**
+     * Continue the schedule of a previous server run. Interval resets keep
+     * their phase, skipping all resets that would have happened in between.
+     * @param previousNextResetTime the next reset time at the time of saving, or 0
+     */
+    public void restore(long previousNextResetTime) {
+        if (!hasResetTime) return;
+        long now = Clock.currentTimeMillis();
+        if (resetTimeInterval != null && resetTimeInterval > 0 && previousNextResetTime > 0L) {
+            long interval = 60_000L*resetTimeInterval;
+            long next = previousNextResetTime;
+            if (next <= now) next += ((now - next) / interval + 1) * interval;
+            nextResetTime = next;
+        } else {
+            nextResetTime = computeNextReset(now);
+        }
+    }
+
+    /** @return the epoch trackers have to be in to be up to date */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @param from the last time in ms something was in sync with this schedule
+     * @return true if a reset happened since the specified time
+     */
+    public boolean hasResetSince(long from) {
+        if (!hasResetTime || nextResetTime == 0L) return false;
+        long previousResetTime;
+        if (resetTimeInterval != null) {
+            previousResetTime = nextResetTime - 60_000L*resetTimeInterval;
+        } else if (hasResetTimePoint) {
+            previousResetTime = nextResetTime - 24*60*60*1000; // time point is time of day
+        } else {
+            return false;
+        }
+        return from < previousResetTime;
+    }
+
+    /** calculate next reset in ms */
+    private long computeNextReset(long now) {
+        if (resetTimeInterval != null) {
+            return now+60_000L*resetTimeInterval;
+        } else if (hasResetTimePoint) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            calendar.set(Calendar.HOUR_OF_DAY, resetHour);
+            calendar.set(Calendar.MINUTE, resetMinute);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            if (calendar.getTimeInMillis() <= now) //reset time already passed
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+            return calendar.getTimeInMillis();
+        } else { //timed resets are disabled
+            return Long.MAX_VALUE;
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the current discrepancy, limit values and price history of all manipulators
+ * in a compact binary format, so the market survives restarts.<br>
+ * The global and shop manipulators are stored in one state file, every player gets a
+ * separate file in the players directory next to it. Player manipulators are paged out
+ * when the player leaves and paged back in when they return, so only online players
+ * have to be kept in memory.<br>
+ * Capturing the state is cheap and has to happen on the main thread to get a consistent
+ * snapshot, compressing and writing the file can happen on any thread.
+ */
+public class StateStore {
+
+    private static final int MAGIC = 0x544D5353; // TMSS
+    private static final int VERSION = 2;
+    /** marks a pending write, that deletes the file instead */
+    private static final byte[] DELETE = new byte[0];
+
+    private final Path file;
+    private final Path playerDirectory;
+
+    /**
+     * Snapshots that were captured but not yet written. Writes only ever write the latest
+     * snapshot for a file, so writes finishing out of order can't restore an old state.
+     * Page-ins look here first, in case the player rejoins before the file was written.
+     */
+    private final Map<Path, byte[]> pending = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    /** player states captured up to this time are ignored, see {@link #discardPlayerStates} */
+    private volatile long discardedAt = Long.MIN_VALUE;
+
+    public StateStore(Path file) {
+        this.file = file;
+        this.playerDirectory = file.resolveSibling("players");
+    }
+
+    /** serialize the global and shop state into memory. has to be called on the main thread */
+    public byte[] snapshot(PriceCalculator calculator) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64*1024);
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeHeader(out);
+        calculator.writeState(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+    /** serialize the state of a single player into memory, or {@link #DELETE} if nothing is worth keeping */
+    private static byte[] snapshot(PriceManipulator manipulator) throws IOException {
+        if (manipulator.isPristine()) return DELETE;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeHeader(out);
+        manipulator.writeState(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    /** compress and write a snapshot to disk, replacing the previous state file */
+    public void write(byte[] snapshot) throws IOException {
+        write(file, snapshot);
+    }
+    private static void write(Path target, byte[] snapshot) throws IOException {
+        if (snapshot == DELETE) {
+            Files.deleteIfExists(target);
+            return;
+        }
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64*1024)) {
+            out.write(snapshot);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** queue the snapshot as latest state for the target file */
+    private void enqueue(Path target, byte[] snapshot) {
+        pending.put(target, snapshot);
+    }
+    /** write the latest pending snapshot for the target, if not already written by a later call */
+    private void flush(Path target) throws IOException {
+        synchronized (writeLock) {
+            byte[] snapshot = pending.get(target);
+            if (snapshot == null) return;
+            write(target, snapshot);
+            pending.remove(target, snapshot);
+        }
+    }
+    private CompletableFuture<Void> flushAsync(Collection<Path> targets, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                for (Path target : targets) flush(target);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Capture the state for the calculator and all players currently in memory on the calling
+     * thread and write it on the specified executor.
+     * @return a future completing once the state was written
+     */
+    public CompletableFuture<Void> saveAsync(PriceCalculator calculator, Executor executor) {
+        List<Path> targets;
+        try {
+            targets = capture(calculator);
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return flushAsync(targets, executor);
+    }
+
+    /**
+     * Capture and write the state for the calculator and all players currently in memory on
+     * the calling thread. Meant for shutdown, when async tasks might not complete anymore.
+     */
+    public void save(PriceCalculator calculator) throws IOException {
+        capture(calculator);
+        for (Path target : new ArrayList<>(pending.keySet())) flush(target);
+    }
+
+    private List<Path> capture(PriceCalculator calculator) throws IOException {
+        List<Path> targets = new LinkedList<>();
+        enqueue(file, snapshot(calculator));
+        targets.add(file);
+        for (Map.Entry<UUID, PriceManipulator> e : calculator.getResidentPlayers().entrySet()) {
+            Path target = getPlayerFile(e.getKey());
+            enqueue(target, snapshot(e.getValue()));
+            targets.add(target);
+        }
+        return targets;
+    }
+
+    /**
+     * Load the state file into the calculator, if it exists. The calculator should be freshly built
+     * from the configuration. The time passed since the state was saved is caught up.
+     * @return true if a state was loaded
+     * @throws IOException if the file could not be read or is not a valid state file
+     */
+    public boolean load(PriceCalculator calculator) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 64*1024)))) {
+            long savedAt = readHeader(in);
+            calculator.readState(in, savedAt);
+        }
+        return true;
+    }
+
+    /**
+     * Capture the state of a player on the calling thread and write it to the player's file
+     * on the specified executor. The manipulator should no longer be used afterwards.
+     */
+    public CompletableFuture<Void> pageOut(UUID player, PriceManipulator manipulator, Executor executor) {
+        Path target = getPlayerFile(player);
+        try {
+            enqueue(target, snapshot(manipulator));
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return flushAsync(Collections.singleton(target), executor);
+    }
+
+    /**
+     * Read the paged out state of a player into the manipulator, catching up on the time
+     * the player was gone. Player files are small, so this is done on the calling thread.
+     * @param manipulator a fresh clone of the player base manipulator
+     * @return false if there was no state for this player
+     */
+    public boolean pageIn(UUID player, PriceManipulator manipulator) throws IOException {
+        Path source = getPlayerFile(player);
+        byte[] snapshot = pending.get(source);
+        if (snapshot == DELETE) return false;
+        InputStream raw;
+        if (snapshot != null) {
+            raw = new ByteArrayInputStream(snapshot);
+        } else if (Files.exists(source)) {
+            raw = new GZIPInputStream(Files.newInputStream(source));
+        } else {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            long savedAt = readHeader(in);
+            if (savedAt <= discardedAt) return false;
+            manipulator.readState(in, new HashMap<>(), savedAt);
+        }
+        return true;
+    }
+
+    /**
+     * Forget the state of all players, so they start over with the next page-in. States captured
+     * until now are ignored and their files are deleted on the specified executor, states paged
+     * out afterwards are kept.
+     * @return a future completing once the files were deleted
+     */
+    public CompletableFuture<Void> discardPlayerStates(Executor executor) {
+        long discardedAt = Clock.currentTimeMillis();
+        this.discardedAt = discardedAt;
+        // queued writes for these would only restore the old state
+        pending.keySet().removeIf(target -> !target.equals(file));
+        return CompletableFuture.runAsync(() -> {
+            synchronized (writeLock) {
+                if (!Files.isDirectory(playerDirectory)) return;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(playerDirectory, "*.bin")) {
+                    for (Path source : files) {
+                        // players paged out since will overwrite their file with the next flush
+                        if (pending.containsKey(source)) continue;
+                        if (readSavedAt(source) <= discardedAt) Files.deleteIfExists(source);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, executor);
+    }
+    /** @return the time the state file was written at, or {@link Long#MIN_VALUE} if it is not a valid state file */
+    private static long readSavedAt(Path source) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(source)))) {
+            return readHeader(in);
+        } catch (IOException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private Path getPlayerFile(UUID player) {
+        return playerDirectory.resolve(player.toString().replace("-", "")+".bin");
+    }
+
+    static void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(Clock.currentTimeMillis());
+    }
+    /** @return the time the state was written at */
+    static long readHeader(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a state file");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported state version "+version);
+        return in.readLong();
+    }
+
+}
@@ -0,0 +1,126 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import com.google.common.collect.ImmutableList;
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import de.dosmike.sponge.toomuchstock.service.PriceQuery;
+import de.dosmike.sponge.toomuchstock.service.PriceQuote;
+import de.dosmike.sponge.toomuchstock.service.PriceSubscription;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link PriceSubscription} held by the price calculator. Price changes mark the subscription
+ * dirty and the prices are only computed again once the minimum interval passed, so a subscription
+ * costs nothing while its items don't trade or decay.<br>
+ * Apart from {@link #cancel()} and the getters, subscriptions are only used on the flushing thread.
+ */
+class Subscription implements PriceSubscription {
+
+    private final List<PriceQuery> queries;
+    @Nullable private final UUID shopID, playerID;
+    private final long minInterval;
+    private final BigDecimal threshold;
+    private final Listener listener;
+
+    /** the last pushed quotes. only the changed quotes are replaced on a push */
+    private volatile List<PriceQuote> quotes;
+    private volatile boolean active = true;
+    private boolean dirty = false;
+    /** when the prices were last computed. pushes only happen then, so they are at least as far apart */
+    private long lastEvaluated;
+
+    Subscription(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID, long minIntervalMillis, double threshold, Listener listener, List<PriceQuote> quotes) {
+        this.queries = ImmutableList.copyOf(queries);
+        this.shopID = shopID;
+        this.playerID = playerID;
+        this.minInterval = minIntervalMillis;
+        this.threshold = BigDecimal.valueOf(threshold);
+        this.listener = listener;
+        this.quotes = ImmutableList.copyOf(quotes);
+        this.lastEvaluated = Clock.currentTimeMillis();
+    }
+
+    List<PriceQuery> getQueries() {
+        return queries;
+    }
+    @Nullable UUID getShopID() {
+        return shopID;
+    }
+    @Nullable UUID getPlayerID() {
+        return playerID;
+    }
+
+    /** mark this subscription dirty, if the change affects any of the subscribed items */
+    void changed(PriceUpdateEvent.Change change) {
+        if (dirty) return;
+        PriceMetrics.Scope scope = change.getScope();
+        if (scope == PriceMetrics.Scope.SHOPS && (shopID == null || !change.getOwner().filter(shopID::equals).isPresent())) return;
+        if (scope == PriceMetrics.Scope.PLAYERS && (playerID == null || !change.getOwner().filter(playerID::equals).isPresent())) return;
+        for (PriceQuery query : queries) {
+            if (change.affects(query.getItem())) {
+                dirty = true;
+                return;
+            }
+        }
+    }
+    /** mark this subscription dirty regardless of changes, e.g. after the configuration changed */
+    void invalidate() {
+        dirty = true;
+    }
+
+    /** @return true if the prices have to be computed again */
+    boolean isDue(long now) {
+        return active && dirty && now - lastEvaluated >= minInterval;
+    }
+
+    /**
+     * Compares the current prices with the last pushed ones and pushes those that moved by at
+     * least the threshold.
+     * @param current the current quotes in query order
+     */
+    void update(List<PriceQuote> current, long now) {
+        dirty = false;
+        // moves below the threshold wait for the interval as well, so they don't reprice every flush
+        lastEvaluated = now;
+        List<PriceQuote> previous = quotes;
+        List<PriceQuote> next = new ArrayList<>(previous);
+        List<PriceQuote> changed = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+            PriceQuote quote = current.get(i);
+            if (moved(previous.get(i).getPurchasePrice(), quote.getPurchasePrice()) ||
+                    moved(previous.get(i).getSellingPrice(), quote.getSellingPrice())) {
+                next.set(i, quote);
+                changed.add(quote);
+            }
+        }
+        if (changed.isEmpty()) return;
+        quotes = ImmutableList.copyOf(next);
+        listener.pricesChanged(this, changed);
+    }
+    private boolean moved(BigDecimal from, BigDecimal to) {
+        if (from.signum() == 0) return to.signum() != 0;
+        BigDecimal delta = to.subtract(from).abs().divide(from.abs(), 8, RoundingMode.HALF_UP);
+        return delta.compareTo(threshold) >= 0 && delta.signum() != 0;
+    }
+
+    @Override
+    public List<PriceQuote> getQuotes() {
+        return quotes;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void cancel() {
+        active = false;
+    }
+
+}
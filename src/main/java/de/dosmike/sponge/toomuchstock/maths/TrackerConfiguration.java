@@ -0,0 +1,210 @@
+package de.dosmike.sponge.toomuchstock.maths;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import de.dosmike.sponge.toomuchstock.ConfigKeys;
+import de.dosmike.sponge.toomuchstock.TooMuchStock;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.ValueType;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The configuration values for an item tracker. Instances are immutable and shared by
+ * all trackers created from the same configuration, no matter how many shops or players
+ * there are. Trackers only hold their current state and swap the reference on reload.
+ */
+public final class TrackerConfiguration {
+
+    /**
+     * From the players view income is positive, so this is the amount
+     * players can earn by selling items.
+     */
+    private final Map<Currency, BigDecimal> incomeLimit;
+    /**
+     * From the players view income is positive, so this is the amount
+     * players can spend on buying items.
+     */
+    private final Map<Currency, BigDecimal> spendingLimit;
+    /** the amount of items a player can buy, or null if unlimited */
+    private final Integer itemBuyLimit;
+    /** the amount of items a player can sell, or null if unlimited */
+    private final Integer itemSellLimit;
+
+    /**
+     * The rate at which the price for this item goes up every time a single item
+     * is bought from an admin shop
+     */
+    private final double growthRate;
+
+    /**
+     * The rate at which the price for this item goes down every time a single item
+     * is sold to an admin shop
+     */
+    private final double decayRate;
+
+    /**
+     * The half life for the price discrepancy (based on growthRate and decayRate)
+     * returning to the initial price in minutes is set by the configuration.
+     * In order to update the price every minute the decay constant (lambda) is
+     * required to calculate N(t+1) = N(t) * e ^ (-lambda * 1).
+     * From the half-life the decay constant is calculated as lambda = ln(2) / halfLife
+     */
+    private final double decayConstant;
+    /** Configuration value */
+    private final long halfLife;
+
+    /**
+     * In order to keep resales at bay the dispersion devaluation is a factor [1..0]
+     * that's multiplied onto the price tag every time a player sells items to
+     * admin shops.
+     */
+    private final double dispersionDevaluation;
+
+    private TrackerConfiguration(Map<Currency, BigDecimal> incomeLimit, Map<Currency, BigDecimal> spendingLimit,
+                                 @Nullable Integer itemBuyLimit, @Nullable Integer itemSellLimit,
+                                 double growthRate, double decayRate, long halfLife, double dispersionDevaluation) {
+        this.incomeLimit = incomeLimit;
+        this.spendingLimit = spendingLimit;
+        this.itemBuyLimit = itemBuyLimit;
+        this.itemSellLimit = itemSellLimit;
+        this.growthRate = growthRate;
+        this.decayRate = decayRate;
+        this.halfLife = halfLife;
+        this.decayConstant = halfLife > 0 ? Math.log(2)/halfLife : 0;
+        this.dispersionDevaluation = dispersionDevaluation;
+    }
+
+    /** @return how much can be earned in the specified currency, or null if unlimited */
+    @Nullable
+    public BigDecimal getIncomeLimit(Currency currency) {
+        return incomeLimit.get(currency);
+    }
+    /** @return how much can be spent in the specified currency, or null if unlimited */
+    @Nullable
+    public BigDecimal getSpendingLimit(Currency currency) {
+        return spendingLimit.get(currency);
+    }
+    /** @return all currencies with an income limit */
+    Set<Currency> getIncomeLimitCurrencies() {
+        return incomeLimit.keySet();
+    }
+    /** @return all currencies with a spending limit */
+    Set<Currency> getSpendingLimitCurrencies() {
+        return spendingLimit.keySet();
+    }
+    /** @return how many items can be bought, or null if unlimited */
+    @Nullable
+    public Integer getItemBuyLimit() {
+        return itemBuyLimit;
+    }
+    /** @return how many items can be sold, or null if unlimited */
+    @Nullable
+    public Integer getItemSellLimit() {
+        return itemSellLimit;
+    }
+    public double getGrowthRate() {
+        return growthRate;
+    }
+    public double getDecayRate() {
+        return decayRate;
+    }
+    public double getDecayConstant() {
+        return decayConstant;
+    }
+    public long getHalfLife() {
+        return halfLife;
+    }
+    public double getDispersionDevaluation() {
+        return dispersionDevaluation;
+    }
+
+    public static TrackerConfiguration fromConfiguration(ConfigurationNode node) throws ObjectMappingException {
+        ImmutableMap.Builder<Currency, BigDecimal> incomeLimit = ImmutableMap.builder();
+        ImmutableMap.Builder<Currency, BigDecimal> spendingLimit = ImmutableMap.builder();
+        ConfigurationNode n;
+        for (Currency currency : TooMuchStock.getEconomy().getCurrencies()) {
+            n = node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).getNode(currency.getId());
+            if (!n.isVirtual()) {
+                BigDecimal value = n.getValue(TypeToken.of(BigDecimal.class));
+                if (value == null && n.getValueType().equals(ValueType.SCALAR))
+                    value = BigDecimal.valueOf(n.getDouble());
+                if (value != null)
+                    incomeLimit.put(currency, value);
+            }
+            n = node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).getNode(currency.getId());
+            if (!n.isVirtual()) {
+                BigDecimal value = n.getValue(TypeToken.of(BigDecimal.class));
+                if (value == null && n.getValueType().equals(ValueType.SCALAR))
+                    value = BigDecimal.valueOf(n.getDouble());
+                if (value != null)
+                    spendingLimit.put(currency, value);
+            }
+        }
+        return new TrackerConfiguration(
+                incomeLimit.build(),
+                spendingLimit.build(),
+                node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT).isVirtual() ? null : node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT).getInt(),
+                node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT).isVirtual() ? null : node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT).getInt(),
+                node.getNode(ConfigKeys.KEY_IT_PRICEINCREASE).getDouble(),
+                node.getNode(ConfigKeys.KEY_IT_PRICEDECAY).getDouble(),
+                node.getNode(ConfigKeys.KEY_IT_HALFLIFE).getInt(),
+                node.getNode(ConfigKeys.KEY_IT_DISPERSIONDEVALUATION).getDouble()
+        );
+    }
+
+    public void toConfiguration(CommentedConfigurationNode node) throws ObjectMappingException {
+        for (Map.Entry<Currency, BigDecimal> e : incomeLimit.entrySet()) {
+            node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT)
+                    .getNode(e.getKey().getId())
+                    .setValue(TypeToken.of(BigDecimal.class), e.getValue());
+        }
+        for (Map.Entry<Currency, BigDecimal> e : spendingLimit.entrySet()) {
+            node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT)
+                    .getNode(e.getKey().getId())
+                    .setValue(TypeToken.of(BigDecimal.class), e.getValue());
+        }
+        if (!node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).isVirtual())
+            node.getNode(ConfigKeys.KEY_IT_INCOMELIMIT).setComment("how much someone can earn during the reset period (delete entries to remove limits)");
+        if (!node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).isVirtual())
+            node.getNode(ConfigKeys.KEY_IT_SPENDINGLIMIT).setComment("how much someone can spend during the reset period (delete entries to remove limits)");
+        if (itemBuyLimit != null)
+            node.getNode(ConfigKeys.KEY_IT_AGGREGATIONAMOUNT)
+                    .setValue(itemBuyLimit)
+                    .setComment("how many items someone can purchase during the reset period (delete for no limit)");
+        if (itemSellLimit != null)
+            node.getNode(ConfigKeys.KEY_IT_DISPERSEAMOUNT)
+                    .setValue(itemSellLimit)
+                    .setComment("how many items someone can sell during the reset period (delete for no limit)");
+        node.getNode(ConfigKeys.KEY_IT_PRICEDECAY)
+                .setComment("The amount a price goes down for every single item sold.\n" +
+                        "This is a percentage value from 0 to 1, meaning\n" +
+                        "1 will reduce the price about 100% to 0 and\n" +
+                        "0 will not cause any change\n" +
+                        "(negative values are discouraged for economic stability)")
+                .setValue(decayRate);
+        node.getNode(ConfigKeys.KEY_IT_PRICEINCREASE)
+                .setComment("The amount a price goes up for every single item purchased.\n" +
+                        "This is a percentage from 0 to 1, meaning\n" +
+                        "1 will increase the price about 100% to 0 and\n" +
+                        "0 will not cause any change\n" +
+                        "(negative values are discouraged for economic stability)")
+                .setValue(growthRate);
+        node.getNode(ConfigKeys.KEY_IT_HALFLIFE)
+                .setValue(halfLife)
+                .setComment("the amount of time in minutes it takes for the price discapency (created by priceDecay and priceIncrease) to be reduced back to 50% (as a soft cooldown)");
+        node.getNode(ConfigKeys.KEY_IT_DISPERSIONDEVALUATION)
+                .setValue(dispersionDevaluation)
+                .setComment("this value is supposed to be multiplied onto a price whenever an item is sold to an admin shop, making re-selling really ineffective.\n"+
+                        "This is a percentage value from 0 to 1:\n"+
+                        "1 means the sell price does not change\n"+
+                        "0 means the player gets nothing for selling the item");
+    }
+
+}
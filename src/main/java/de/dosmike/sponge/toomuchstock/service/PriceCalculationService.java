@@ -6,8 +6,16 @@ import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.service.economy.Currency;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Quotes and {@link TransactionPreview#confirm(int) confirmations} are thread safe, so shops can
+ * price items from async threads without a hop to the main thread.<br>
+ * If shopID or playerID are null, the shop or player tracking is skipped entirely and no
+ * state is created for them. Without a player, the account balance does not limit the amount.
+ */
 @SuppressWarnings("unused")
 public interface PriceCalculationService {
 
@@ -41,6 +49,39 @@ public interface PriceCalculationService {
      * @return TransactionPreview with price listings and amount information
      */
     TransactionPreview getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID);
+    /**
+     * Get pricing information for players that seek to <b>purchase</b> items from this shop.<br>
+     * Same as {@link #getPurchaseInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID)}, but
+     * a lazy TransactionPreview does not compute the price for every amount up front. The affordable amount is
+     * searched in logarithmic time and prices are only computed when requested through
+     * {@link TransactionPreview#getCumulativeValueFor(int)}.
+     * This is recommended if you're only interested in the affordable amount and the price for few amounts.
+     * @param item the item to use the tracking for
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     */
+    TransactionPreview getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy);
+    /**
+     * Get pricing information for players that seek to <b>purchase</b> items from this shop.<br>
+     * Same as {@link #getPurchaseInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID, boolean)}, but
+     * the players balance is supplied by the caller. The economy service is not asked, so this never blocks on
+     * the economy backend. Use this if you already know the balance, e.g. from your own economy transaction.
+     * @param item the item to use the tracking for
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @param playerBalance the players balance in the currency, or null to not limit the amount by balance
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     */
+    TransactionPreview getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal playerBalance, boolean lazy);
     /**
      * Get pricing information for players that seek to <b>sell</b> items from this shop.<br>
      * Since prices are no longer linear with amount, this function returns the price for each amount from 1 up to {@code amount}.
@@ -71,6 +112,39 @@ public interface PriceCalculationService {
      * @return TransactionPreview with price listings and amount information
      */
     TransactionPreview getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID);
+    /**
+     * Get pricing information for players that seek to <b>sell</b> items from this shop.<br>
+     * Same as {@link #getSellingInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID)}, but
+     * a lazy TransactionPreview does not compute the price for every amount up front. The affordable amount is
+     * searched in logarithmic time and prices are only computed when requested through
+     * {@link TransactionPreview#getCumulativeValueFor(int)}.
+     * This is recommended if you're only interested in the affordable amount and the price for few amounts.
+     * @param item the item to use the tracking for
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     */
+    TransactionPreview getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy);
+    /**
+     * Get pricing information for players that seek to <b>sell</b> items from this shop.<br>
+     * Same as {@link #getSellingInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID, boolean)}, but
+     * the remaining capacity of the players account is supplied by the caller. The economy service is not asked,
+     * so this never blocks on the economy backend.
+     * @param item the item to use the tracking for
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @param accountCapacity how much the players account can still receive, or null if not capped
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     */
+    TransactionPreview getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal accountCapacity, boolean lazy);
 
     /**
      * Get pricing information for players that seek to <b>purchase</b> items from this shop.<br>
@@ -132,4 +206,60 @@ public interface PriceCalculationService {
      */
     BigDecimal getCurrentSellingPrice(ItemStackSnapshot item, int amount, BigDecimal staticPrice, @Nullable UUID shopID, @Nullable UUID playerID);
 
+    /**
+     * Get the current purchase and selling prices for many listings of the same shop and player at once,
+     * e.g. to render a whole shop inventory. The shop and player are only looked up once and every
+     * tracker is only read once for both prices. <br>
+     * <i>This is supposed to make displaying prices more performant, it's not meant for fetching final prices!</i><br>
+     * If you're looking to make a transaction, please use {@link #getPurchaseInformation} or {@link #getSellingInformation}
+     * @param queries the items, amounts and static prices to calculate prices for
+     * @param shopID the UUID of the shop, if these items are listed within a shop
+     * @param playerID the UUID of the player that's looking at the items (if applicable)
+     * @return the quotes in the same order as the queries
+     */
+    List<PriceQuote> getCurrentPrices(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID);
+
+    /**
+     * Get the current prices for the listings pushed to the listener whenever they change meaningfully,
+     * instead of polling {@link #getCurrentPrices}. Subscriptions are only evaluated when the items
+     * change through trades, decay or resets, and at most once per {@code minInterval}.<br>
+     * <i>This is supposed to make displaying prices more performant, it's not meant for fetching final prices!</i>
+     * @param queries the items, amounts and static prices to push prices for
+     * @param shopID the UUID of the shop, if these items are listed within a shop
+     * @param playerID the UUID of the player that's looking at the items (if applicable)
+     * @param minInterval the minimum time between two pushes to the listener
+     * @param unit the time unit for minInterval
+     * @param threshold the relative amount a price has to move by before it's pushed, e.g. 0.01 for 1%
+     * @param listener receives the quotes that moved by at least the threshold, on the main thread
+     * @return the subscription holding the initial quotes, to be cancelled once the display goes away
+     */
+    PriceSubscription subscribe(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID, long minInterval, TimeUnit unit, double threshold, PriceSubscription.Listener listener);
+
+    /**
+     * Look up the price trackers for an item listing once, for repeated quotes on the same listing.
+     * Quotes through the handle skip the snapshot creation and tracker lookups.
+     * @param item the item to use the tracking for
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @return a handle that stays usable until the next hard reload
+     */
+    PricingHandle getPricingHandle(ItemStack item, @Nullable UUID shopID, @Nullable UUID playerID);
+
+    /**
+     * Look up the price trackers for an item listing once, for repeated quotes on the same listing.
+     * Quotes through the handle skip the tracker lookups.
+     * @param item the item to use the tracking for
+     * @param shopID the UUID of the shop, if this item is listed within a shop
+     * @param playerID the UUID of the player that's seeking transaction (if applicable)
+     * @return a handle that stays usable until the next hard reload
+     */
+    PricingHandle getPricingHandle(ItemStackSnapshot item, @Nullable UUID shopID, @Nullable UUID playerID);
+
+    /**
+     * Get the counters and latency histograms of the pricing engine. The returned instance reflects
+     * live values, but is replaced on hard reloads, so don't hold on to it.
+     * @return the metrics of the current price calculator
+     */
+    PriceMetrics getMetrics();
+
 }
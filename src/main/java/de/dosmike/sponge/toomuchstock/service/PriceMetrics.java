@@ -0,0 +1,69 @@
+package de.dosmike.sponge.toomuchstock.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters and latency histograms for the pricing engine, to spot hot items and slow ticks.<br>
+ * Counters start when the price calculator is built, so a hard reload resets them.
+ * Tracker and manipulator counts are sampled by the think tick once a minute.
+ */
+@SuppressWarnings("unused")
+public interface PriceMetrics {
+
+    enum Operation {
+        /** getCurrentPurchasePrice and getCurrentSellingPrice */
+        CURRENT_PRICE,
+        /** getCurrentPrices, counted once per batch */
+        BATCH_PRICES,
+        /** getPurchaseInformation and getSellingInformation */
+        INFORMATION,
+        /** {@link TransactionPreview#confirm(int)} */
+        CONFIRM,
+        /** the think tick updating and evicting manipulators */
+        THINK_TICK
+    }
+
+    enum Scope { GLOBAL, SHOPS, PLAYERS }
+
+    /** @return the amount of calls for the operation */
+    long getCount(Operation operation);
+
+    /** @return the mean duration for the operation in nanoseconds */
+    double getMeanNanos(Operation operation);
+
+    /** @return the longest duration for the operation in nanoseconds */
+    long getMaxNanos(Operation operation);
+
+    /**
+     * Durations are bucketed by powers of two, so this is an upper bound.
+     * @param fraction the fraction of calls from 0 to 1, e.g. 0.99 for the 99th percentile
+     * @return the duration in nanoseconds the specified fraction of calls finished within
+     */
+    long getPercentileNanos(Operation operation, double fraction);
+
+    /** @return the amount of item trackers in memory for the scope, including derived ones */
+    int getTrackerCount(Scope scope);
+
+    /** @return the amount of trackers created from the default configuration for the scope */
+    int getDerivedTrackerCount(Scope scope);
+
+    /** @return how many derived trackers were added during the last minute, negative if more were evicted */
+    int getDerivedTrackerGrowth(Scope scope);
+
+    /** @return the amount of manipulators in memory for the scope. there's always one global manipulator */
+    int getResidentManipulators(Scope scope);
+
+    /** @return the amount of current prices that were served from the quote cache */
+    long getQuoteCacheHits();
+
+    /** @return the amount of current prices that had to be computed */
+    long getQuoteCacheMisses();
+
+    /**
+     * @param limit the maximum amount of entries
+     * @return item type ids with the amount of quotes for them, most quoted first
+     */
+    List<Map.Entry<String, Long>> getHotItems(int limit);
+
+}
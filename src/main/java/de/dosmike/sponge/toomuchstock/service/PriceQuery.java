@@ -0,0 +1,45 @@
+package de.dosmike.sponge.toomuchstock.service;
+
+import org.spongepowered.api.item.inventory.ItemStack;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+
+import java.math.BigDecimal;
+
+/**
+ * A single listing for {@link PriceCalculationService#getCurrentPrices}. Queries are immutable,
+ * so shops can build them once per listing and reuse them for every render.
+ */
+@SuppressWarnings("unused")
+public final class PriceQuery {
+
+    private final ItemStackSnapshot item;
+    private final int amount;
+    private final BigDecimal staticPrice;
+
+    /**
+     * @param item the item to use the tracking for
+     * @param amount the amount of items to calculate the price for
+     * @param staticPrice the static base-price this item shall use
+     */
+    public PriceQuery(ItemStackSnapshot item, int amount, BigDecimal staticPrice) {
+        if (amount < 0) throw new IllegalArgumentException("Amount can't be negative");
+        this.item = item;
+        this.amount = amount;
+        this.staticPrice = staticPrice;
+    }
+    /** @see #PriceQuery(ItemStackSnapshot, int, BigDecimal) */
+    public PriceQuery(ItemStack item, int amount, BigDecimal staticPrice) {
+        this(item.createSnapshot(), amount, staticPrice);
+    }
+
+    public ItemStackSnapshot getItem() {
+        return item;
+    }
+    public int getAmount() {
+        return amount;
+    }
+    public BigDecimal getStaticPrice() {
+        return staticPrice;
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.dosmike.sponge.toomuchstock.service;
+
+import java.math.BigDecimal;
+
+/**
+ * The current prices for a {@link PriceQuery}, as returned by {@link PriceCalculationService#getCurrentPrices}.
+ * Like the single item price methods, this is for display only.
+ */
+@SuppressWarnings("unused")
+public final class PriceQuote {
+
+    private final PriceQuery query;
+    private final BigDecimal purchasePrice;
+    private final BigDecimal sellingPrice;
+
+    public PriceQuote(PriceQuery query, BigDecimal purchasePrice, BigDecimal sellingPrice) {
+        this.query = query;
+        this.purchasePrice = purchasePrice;
+        this.sellingPrice = sellingPrice;
+    }
+
+    /** @return the query these prices were calculated for */
+    public PriceQuery getQuery() {
+        return query;
+    }
+    /** @return the price for players buying the queried amount, see {@link PriceCalculationService#getCurrentPurchasePrice} */
+    public BigDecimal getPurchasePrice() {
+        return purchasePrice;
+    }
+    /** @return the price for players selling the queried amount, see {@link PriceCalculationService#getCurrentSellingPrice} */
+    public BigDecimal getSellingPrice() {
+        return sellingPrice;
+    }
+
+}
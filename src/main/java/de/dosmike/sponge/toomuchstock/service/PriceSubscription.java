@@ -0,0 +1,34 @@
+package de.dosmike.sponge.toomuchstock.service;
+
+import java.util.List;
+
+/**
+ * Interest in the current prices of some listings within one shop and for one player, as returned by
+ * {@link PriceCalculationService#subscribe}. Instead of polling prices on a timer, displays get new
+ * prices pushed once they moved by at least the subscriptions threshold.<br>
+ * Subscriptions survive config reloads until they are cancelled.
+ */
+@SuppressWarnings("unused")
+public interface PriceSubscription {
+
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * Called on the main thread with the quotes that moved by at least the threshold since they
+         * were last pushed. Quotes that didn't move enough are not included.
+         * @param subscription the subscription the quotes are for
+         * @param changed the new quotes, in the order of the subscribed queries
+         */
+        void pricesChanged(PriceSubscription subscription, List<PriceQuote> changed);
+    }
+
+    /** @return the last pushed quote for every subscribed query, in query order */
+    List<PriceQuote> getQuotes();
+
+    /** @return false once this subscription was cancelled */
+    boolean isActive();
+
+    /** stop pushing prices to the listener */
+    void cancel();
+
+}
@@ -0,0 +1,97 @@
+package de.dosmike.sponge.toomuchstock.service;
+
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.api.item.inventory.ItemStackSnapshot;
+import org.spongepowered.api.service.economy.Currency;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A listing of one item in a shop for a player, with the price trackers already looked up.
+ * Shops that quote the same listing over and over (e.g. refreshing a sign or an open menu)
+ * can keep the handle instead of going through {@link PriceCalculationService} every time.<br>
+ * Handles are thread safe. If a tracker is dropped in the meantime, e.g. because it was idle
+ * or a reload removed it, the handle looks it up again on the next call. After a hard reload
+ * the handle becomes invalid and a new one has to be requested.
+ */
+@SuppressWarnings("unused")
+public interface PricingHandle {
+
+    /** @return the item this handle quotes */
+    ItemStackSnapshot getItem();
+
+    /** @return the shop this handle quotes for, if any */
+    Optional<UUID> getShopID();
+
+    /** @return the player this handle quotes for, if any */
+    Optional<UUID> getPlayerID();
+
+    /**
+     * @return false once the price calculator this handle was created from was replaced by a hard reload.
+     * All other methods will throw an IllegalStateException in that case.
+     */
+    boolean isValid();
+
+    /**
+     * Same as {@link PriceCalculationService#getCurrentPurchasePrice(ItemStackSnapshot, int, BigDecimal, UUID, UUID)}
+     * for this handles item, shop and player.
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @return The price for the specified amount of items, assuming the player could afford it.
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    BigDecimal getCurrentPurchasePrice(int amount, BigDecimal staticPrice);
+
+    /**
+     * Same as {@link PriceCalculationService#getCurrentSellingPrice(ItemStackSnapshot, int, BigDecimal, UUID, UUID)}
+     * for this handles item, shop and player.
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @return The price for the specified amount of items, assuming the player could afford it.
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    BigDecimal getCurrentSellingPrice(int amount, BigDecimal staticPrice);
+
+    /**
+     * Same as {@link PriceCalculationService#getPurchaseInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID, boolean)}
+     * for this handles item, shop and player.
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    TransactionPreview getPurchaseInformation(int amount, BigDecimal staticPrice, Currency currency, boolean lazy);
+
+    /**
+     * Same as {@link #getPurchaseInformation(int, BigDecimal, Currency, boolean)}, but with the players
+     * balance supplied by the caller, so the economy is not asked.
+     * @param playerBalance the players balance in the currency, or null to not limit the amount by balance
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    TransactionPreview getPurchaseInformation(int amount, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal playerBalance, boolean lazy);
+
+    /**
+     * Same as {@link PriceCalculationService#getSellingInformation(ItemStackSnapshot, int, BigDecimal, Currency, UUID, UUID, boolean)}
+     * for this handles item, shop and player.
+     * @param amount the max amount of items to calculate prices for
+     * @param staticPrice the static base-price this item shall use
+     * @param currency the currency currently trading for income/spending limits
+     * @param lazy true to only compute prices on request
+     * @return TransactionPreview with price listings and amount information
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    TransactionPreview getSellingInformation(int amount, BigDecimal staticPrice, Currency currency, boolean lazy);
+
+    /**
+     * Same as {@link #getSellingInformation(int, BigDecimal, Currency, boolean)}, but with the remaining
+     * capacity of the players account supplied by the caller, so the economy is not asked.
+     * @param accountCapacity how much the players account can still receive, or null if not capped
+     * @throws IllegalStateException if this handle is no longer valid
+     */
+    TransactionPreview getSellingInformation(int amount, BigDecimal staticPrice, Currency currency, @Nullable BigDecimal accountCapacity, boolean lazy);
+
+}
@@ -2,6 +2,11 @@ package de.dosmike.sponge.toomuchstock.service.impl;
 
 import de.dosmike.sponge.toomuchstock.TooMuchStock;
 import de.dosmike.sponge.toomuchstock.service.PriceCalculationService;
+import de.dosmike.sponge.toomuchstock.service.PriceMetrics;
+import de.dosmike.sponge.toomuchstock.service.PriceQuery;
+import de.dosmike.sponge.toomuchstock.service.PriceQuote;
+import de.dosmike.sponge.toomuchstock.service.PriceSubscription;
+import de.dosmike.sponge.toomuchstock.service.PricingHandle;
 import de.dosmike.sponge.toomuchstock.service.TransactionPreview;
 import org.jetbrains.annotations.Nullable;
 import org.spongepowered.api.item.inventory.ItemStack;
@@ -9,7 +14,9 @@ import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.service.economy.Currency;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /** meant to run as service singleton. PriceCalculator rebuilds every config reload */
 public class PriceCalculationProvider implements PriceCalculationService {
@@ -24,6 +31,16 @@ public class PriceCalculationProvider implements PriceCalculationService {
         return TooMuchStock.getPriceCalculator().getPurchaseInformation(item, amount, staticPrice, currency, shopID, playerID);
     }
 
+    @Override
+    public TransactionPreview getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy) {
+        return TooMuchStock.getPriceCalculator().getPurchaseInformation(item, amount, staticPrice, currency, shopID, playerID, lazy);
+    }
+
+    @Override
+    public TransactionPreview getPurchaseInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal playerBalance, boolean lazy) {
+        return TooMuchStock.getPriceCalculator().getPurchaseInformation(item, amount, staticPrice, currency, shopID, playerID, playerBalance, lazy);
+    }
+
     @Override
     public TransactionPreview getSellingInformation(ItemStack item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID) {
         return TooMuchStock.getPriceCalculator().getSellingInformation(item, amount, staticPrice, currency, shopID, playerID);
@@ -34,6 +51,16 @@ public class PriceCalculationProvider implements PriceCalculationService {
         return TooMuchStock.getPriceCalculator().getSellingInformation(item, amount, staticPrice, currency, shopID, playerID);
     }
 
+    @Override
+    public TransactionPreview getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, boolean lazy) {
+        return TooMuchStock.getPriceCalculator().getSellingInformation(item, amount, staticPrice, currency, shopID, playerID, lazy);
+    }
+
+    @Override
+    public TransactionPreview getSellingInformation(ItemStackSnapshot item, int amount, BigDecimal staticPrice, Currency currency, @Nullable UUID shopID, @Nullable UUID playerID, @Nullable BigDecimal accountCapacity, boolean lazy) {
+        return TooMuchStock.getPriceCalculator().getSellingInformation(item, amount, staticPrice, currency, shopID, playerID, accountCapacity, lazy);
+    }
+
     @Override
     public BigDecimal getCurrentPurchasePrice(ItemStack item, int amount, BigDecimal staticPrice, @Nullable UUID shopID, @Nullable UUID playerID) {
         return TooMuchStock.getPriceCalculator().getCurrentPurchasePrice(item, amount, staticPrice, shopID, playerID);
@@ -53,4 +80,29 @@ public class PriceCalculationProvider implements PriceCalculationService {
     public BigDecimal getCurrentSellingPrice(ItemStackSnapshot item, int amount, BigDecimal staticPrice, @Nullable UUID shopID, @Nullable UUID playerID) {
         return TooMuchStock.getPriceCalculator().getCurrentSellingPrice(item, amount, staticPrice, shopID, playerID);
     }
+
+    @Override
+    public List<PriceQuote> getCurrentPrices(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return TooMuchStock.getPriceCalculator().getCurrentPrices(queries, shopID, playerID);
+    }
+
+    @Override
+    public PriceSubscription subscribe(List<PriceQuery> queries, @Nullable UUID shopID, @Nullable UUID playerID, long minInterval, TimeUnit unit, double threshold, PriceSubscription.Listener listener) {
+        return TooMuchStock.getPriceCalculator().subscribe(queries, shopID, playerID, minInterval, unit, threshold, listener);
+    }
+
+    @Override
+    public PricingHandle getPricingHandle(ItemStack item, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return TooMuchStock.getPriceCalculator().getPricingHandle(item, shopID, playerID);
+    }
+
+    @Override
+    public PricingHandle getPricingHandle(ItemStackSnapshot item, @Nullable UUID shopID, @Nullable UUID playerID) {
+        return TooMuchStock.getPriceCalculator().getPricingHandle(item, shopID, playerID);
+    }
+
+    @Override
+    public PriceMetrics getMetrics() {
+        return TooMuchStock.getPriceCalculator().getMetrics();
+    }
 }
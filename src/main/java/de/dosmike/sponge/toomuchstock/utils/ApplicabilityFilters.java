@@ -49,6 +49,23 @@ public abstract class ApplicabilityFilters<T> implements Predicate<ItemStackSnap
         }
     }
 
+    /**
+     * All default filters only ever match items of a single item type. This allows
+     * trackers to be looked up by item type before testing the actual filter.
+     * @return the item type this filter is restricted to, or empty for custom filters
+     */
+    public Optional<ItemType> getFilteredType() {
+        if (template instanceof ItemStackSnapshot) {
+            return Optional.of(((ItemStackSnapshot) template).getType());
+        } else if (template instanceof ItemTypeEx) {
+            return Optional.of(((ItemTypeEx) template).getType());
+        } else if (template instanceof ItemType) {
+            return Optional.of((ItemType) template);
+        } else {
+            return Optional.empty();
+        }
+    }
+
     public static ApplicabilityFilters<ItemType> generateItemTypeEquals(ItemType itemtype) {
         return new ApplicabilityFilters<ItemType>(itemtype, DEFAULT_FILTER_ITEMTYPE) {
             @Override
@@ -101,7 +101,9 @@ public class BiBoundIntegerValue {
      * @throws IllegalArgumentException if the value is not in range
      */
     public void setValue(int value) {
-
+        if (max != null && value > max) throw new IllegalArgumentException("Value exceeds maximum");
+        if (min != null && value < min) throw new IllegalArgumentException("Value exceeds minimum");
+        this.value = value;
     }
 
 }
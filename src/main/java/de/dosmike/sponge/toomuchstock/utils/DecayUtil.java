@@ -51,6 +51,58 @@ public class DecayUtil {
         );
     }
 
+    /**
+     * Calculates the sum of the first {@code count} elements of a geometric sequence. This is the
+     * primitive counterpart to {@link #totalPrice} and runs in constant time without allocation.<br>
+     * The product of multiple geometric sequences is geometric again, so multiple trackers can be
+     * combined by multiplying their initial values and ratios.<br>
+     * The base formula is <code>sum = first * ( ratio ^ count - 1 ) / ( ratio - 1 )</code>
+     * @param first the first element of the sequence, e.g. the multiplier for the first item
+     * @param ratio the factor between two consecutive elements, see {@link #growthRatio} and {@link #decayRatio}
+     * @param count the amount of elements to sum up
+     * @return the sum over all elements
+     */
+    public static double geometricSum(double first, double ratio, int count) {
+        if (count < 0) throw new IllegalArgumentException("Amount can't be negative");
+        if (count == 0) return 0d;
+        double q = ratio - 1d;
+        if (q == 0d) return first * count; // no change, so it's a simple multiplication
+        // rates of -1 or less (ratio <= 0) are outside the domain of log1p, the plain formula still holds
+        if (ratio <= 0d) return first * (1d - Math.pow(ratio, count)) / (1d - ratio);
+        // expm1/log1p keep precision for ratios very close to 1
+        return first * Math.expm1(count * Math.log1p(q)) / q;
+    }
+    /**
+     * Primitive replacement for summing up the elements of {@link #createGrowthMultiplicationVector} or
+     * {@link #createDecayMultiplicationVector} in a single pass. Multiple trackers can be fused by multiplying
+     * their initial values and ratios before calling this.<br>
+     * After this call <code>target[n]</code> holds the sum over the first n elements for n = 0..count.
+     * @param target the buffer to write into, has to hold at least count+1 elements
+     * @param first the first element of the sequence, e.g. the multiplier for the first item
+     * @param ratio the factor between two consecutive elements, see {@link #growthRatio} and {@link #decayRatio}
+     * @param count the amount of elements to sum up
+     */
+    public static void fillGeometricPrefixSums(double[] target, double first, double ratio, int count) {
+        if (count < 0) throw new IllegalArgumentException("Amount can't be negative");
+        if (target.length <= count) throw new IllegalArgumentException("Target can't hold "+count+" sums");
+        double element = first;
+        double sum = 0d;
+        target[0] = 0d;
+        for (int i = 1; i <= count; i++) {
+            sum += element;
+            target[i] = sum;
+            element *= ratio;
+        }
+    }
+    /** @return the ratio between two items with the growth rate as used by {@link #createGrowthMultiplicationVector} */
+    public static double growthRatio(double growthRate) {
+        return 1d+growthRate;
+    }
+    /** @return the ratio between two items with the decay rate as used by {@link #createDecayMultiplicationVector} */
+    public static double decayRatio(double decayRate) {
+        return 1d/(1d+decayRate);
+    }
+
     /** basic exponential growth formula y = a*(1+r)^x
      * the growth rate as percentage is 1+r
      * @return the value AFTER the iterations
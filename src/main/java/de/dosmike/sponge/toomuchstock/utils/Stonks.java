@@ -7,52 +7,117 @@ import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColor;
 import org.spongepowered.api.text.format.TextColors;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Records the price multiplier over the last minutes for display.<br>
+ * Most trackers are idle most of the time, so the history is only allocated once
+ * a value deviates from 1 and dropped again once the history is back to all 1s.
+ * Values are stored as float in a ring buffer, the index of a value is the amount of
+ * minutes passed since it was recorded.
+ */
 public class Stonks {
 
-    double[] history;
-    double[] deltas;
+    private final int length;
+    /** ring buffer, null while all values are 1 */
+    private float[] history = null;
+    /** physical index of the current value (index 0) */
+    private int head = 0;
+    /** amount of values in history that are not 1 */
+    private int nonIdle = 0;
+    /** the last value that was pushed out of history, to compute the oldest delta */
+    private float dropped = 1f;
 
     public Stonks(int length) {
-        history = new double[length];
-        Arrays.fill(history, 1.0); //default price multiplier is 1
-        deltas = new double[length];
+        this.length = length;
+    }
+
+    /** @return the value recorded index minutes ago */
+    public double get(int index) {
+        return history == null ? 1.0 : history[(head + index) % length];
+    }
+    /** @return the change of the value at index, compared to the minute before */
+    public double getDelta(int index) {
+        if (history == null) return 0.0;
+        double previous = index+1 < length ? get(index+1) : dropped;
+        return get(index) - previous;
+    }
+    private void set(int physical, float value) {
+        if (history[physical] != 1f) nonIdle--;
+        if (value != 1f) nonIdle++;
+        history[physical] = value;
     }
 
     //update value -0
     public void update(double value) {
-        history[0] = 1+value; //pushed value is discrepancy, viewer is probably interested in multiplier
-        deltas[0] = history[0]-history[1];
+        float multiplier = (float)(1+value); //pushed value is discrepancy, viewer is probably interested in multiplier
+        if (history == null) {
+            if (multiplier == 1f) return;
+            history = new float[length];
+            Arrays.fill(history, 1f);
+            head = 0;
+            nonIdle = 0;
+        }
+        set(head, multiplier);
     }
     //push all values further down, -0 will remain
     public void push() {
-        for (int i = history.length-1; i>0; i--) {
-            deltas[i] = deltas[i-1];
-            history[i] = history[i-1];
+        if (history == null) {
+            dropped = 1f;
+            return;
         }
-        deltas[0] = history[0]-history[1];
+        int previous = head;
+        head = (head + length - 1) % length;
+        dropped = history[head];
+        set(head, history[previous]);
+        if (nonIdle == 0) history = null; // back to all 1s
+    }
+    /** reset all values to 1 */
+    public void clear() {
+        history = null;
+        nonIdle = 0;
+        dropped = 1f;
     }
 
     /** @return true if history is all boring 1s */
     public boolean isIdle() {
-        for (double d : history) if (Math.abs(d-1.0) > Math.ulp(1.0)) return false;
-        return true;
+        return nonIdle == 0;
+    }
+
+    /** writes the history values, deltas are derived from them when reading */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeShort(length);
+        for (int i = 0; i < length; i++) out.writeDouble(get(i));
+    }
+    /** reads history values written by {@link #writeTo}. If the length changed, values are cut off or left at 1 */
+    public void readFrom(DataInput in) throws IOException {
+        clear();
+        int count = in.readUnsignedShort();
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) values[i] = in.readDouble();
+        // oldest first, so every value is pushed down to its index
+        for (int i = Math.min(count, length)-1; i >= 0; i--) {
+            update(values[i]-1);
+            if (i > 0) push();
+        }
     }
 
     private double getMax() {
         double m = Double.MIN_VALUE;
-        for (double d : history)
-            if (d > m) m = d;
+        for (int i = 0; i < length; i++)
+            if (get(i) > m) m = get(i);
         return m;
     }
     private double getMin() {
         double m = Double.MAX_VALUE;
-        for (double d : history)
-            if (d < m) m = d;
+        for (int i = 0; i < length; i++)
+            if (get(i) < m) m = get(i);
         return m;
     }
 
@@ -63,7 +128,7 @@ public class Stonks {
         String empty;
         if (fixWidths) empty = "` ,";
         else empty = " "; //displayed in console/terminal
-        int[] values = new int[history.length];
+        int[] values = new int[length];
         int maxValue = lines*8;
         double min = getMin(), max = getMax(), span = max-min;
 
@@ -74,18 +139,18 @@ public class Stonks {
             span = 1f; // prevent div0
         }
         span /= maxValue; // 0 - maxValue range when dividing below
-        for (int i = 0; i < history.length; i++)
-            values[i] = (int)Math.round((history[i]-min)/span);
+        for (int i = 0; i < length; i++)
+            values[i] = (int)Math.round((get(i)-min)/span);
 
         for (int i = lines-1; i>=0; i--) { // high value printed first (top)
             Text.Builder builder = Text.builder();
-            for (int c = history.length-1; c >= 0 ; c--) { //now to the right, past to the left
+            for (int c = length-1; c >= 0 ; c--) { //now to the right, past to the left
                 if (values[c] == 0 || values[c] <= i*8)
-                    builder.append(Text.builder(empty).color(TextColors.DARK_GRAY).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(history[c]),"\nDelta: ",valueFormat.format(deltas[c])))).build());
+                    builder.append(Text.builder(empty).color(TextColors.DARK_GRAY).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(get(c)),"\nDelta: ",valueFormat.format(getDelta(c))))).build());
                 else if (values[c] >= (i+1)*8)
-                    builder.append(Text.builder(steps[0]).color(color).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(history[c]),"\nDelta: ",valueFormat.format(deltas[c])))).build());
+                    builder.append(Text.builder(steps[0]).color(color).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(get(c)),"\nDelta: ",valueFormat.format(getDelta(c))))).build());
                 else
-                    builder.append(Text.builder(steps[values[c]%8]).color(color).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(history[c]),"\nDelta: ",valueFormat.format(deltas[c])))).build());
+                    builder.append(Text.builder(steps[values[c]%8]).color(color).onHover(TextActions.showText(Text.of("Value: ",valueFormat.format(get(c)),"\nDelta: ",valueFormat.format(getDelta(c))))).build());
             }
             if (i == 0)
                 builder.append(Text.of(" _ ", valueFormat.format(min)));
@@ -94,7 +159,7 @@ public class Stonks {
             l.add(builder.build());
         }
         String spacer = "--------------------";
-        l.add(Text.of(history.length, "min ago   <"+spacer+">   now"));
+        l.add(Text.of(length, "min ago   <"+spacer+">   now"));
         return l;
     }
 